@@ -0,0 +1,33 @@
+package com.mnasser.io.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of benchmarks.jar. Takes the same arguments as JMH's own launcher 
+ * but always attaches the GC profiler, so every suite reports its allocation 
+ * rate (gc.alloc.rate.norm is bytes allocated per operation).
+ * <pre>
+ *   java -jar benchmarks/target/benchmarks.jar ByteBuilder -p size=4096
+ * </pre>
+ * @author mnasser
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if( cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() 
+				|| cmd.shouldListProfilers() || cmd.shouldListResultFormats() ){
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		Options opts = new OptionsBuilder()
+				.parent(cmd)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(opts).run();
+	}
+}
@@ -0,0 +1,125 @@
+package com.mnasser.io.bench;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mnasser.io.ByteArrayMap;
+
+/**
+ * ByteArrayMap get/put/remove against a <code>HashMap&lt;ByteBuffer,V&gt;</code> 
+ * holding the same keys. 
+ * <p>
+ * The 100M entry maps need a large heap, hence the -Xmx below. Pick sizes with 
+ * e.g. <code>-p size=1000,100000</code> on smaller machines.
+ * @author mnasser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx32g"})
+@State(Scope.Benchmark)
+public class ByteArrayMapBenchmark {
+
+	private static final Integer VALUE = 1;
+	private static final int PROBES = 1 << 16;
+	private static final int MASK = PROBES - 1;
+	
+	@Param({"1000", "100000", "10000000", "100000000"})
+	int size;
+	
+	ByteArrayMap<Integer> map;
+	HashMap<ByteBuffer, Integer> hashMap;
+	byte[][] hits = new byte[PROBES][];
+	byte[][] misses = new byte[PROBES][];
+	
+	/**
+	 * 16 byte hex id keys, like the ones we look up in production.
+	 */
+	static byte[] key(long i){
+		long x = i * 0x9E3779B97F4A7C15L;
+		byte[] k = new byte[16];
+		for( int ii = 0; ii < 16; ii++, x >>>= 4)
+			k[ii] = (byte)"0123456789abcdef".charAt((int)(x & 0xf));
+		return k;
+	}
+	
+	@Setup
+	public void setup(){
+		map = new ByteArrayMap<Integer>();
+		hashMap = new HashMap<ByteBuffer, Integer>();
+		for( int ii = 0; ii < size; ii++){
+			byte[] k = key(ii);
+			map.put(k, VALUE);
+			hashMap.put(ByteBuffer.wrap(k), VALUE);
+		}
+		for( int ii = 0; ii < PROBES; ii++){
+			hits[ii] = key( (long)ii * 7919 % size );
+			misses[ii] = key( (long)size + ii );
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Cursor {
+		int i = 0;
+		int next(){ return i++ & MASK; }
+	}
+	
+	@Benchmark
+	public Integer get(Cursor c){
+		return map.get(hits[c.next()]);
+	}
+	
+	@Benchmark
+	public Integer getMiss(Cursor c){
+		return map.get(misses[c.next()]);
+	}
+	
+	@Benchmark
+	public Integer put(Cursor c){
+		return map.put(hits[c.next()], VALUE);
+	}
+	
+	/** Inserts a new key then removes it again, leaving the map unchanged. */
+	@Benchmark
+	public Integer putRemove(Cursor c){
+		byte[] k = misses[c.next()];
+		map.put(k, VALUE);
+		return map.remove(k);
+	}
+	
+	@Benchmark
+	public Integer hashMapGet(Cursor c){
+		return hashMap.get(ByteBuffer.wrap(hits[c.next()]));
+	}
+	
+	@Benchmark
+	public Integer hashMapGetMiss(Cursor c){
+		return hashMap.get(ByteBuffer.wrap(misses[c.next()]));
+	}
+	
+	@Benchmark
+	public Integer hashMapPut(Cursor c){
+		return hashMap.put(ByteBuffer.wrap(hits[c.next()]), VALUE);
+	}
+	
+	@Benchmark
+	public Integer hashMapPutRemove(Cursor c){
+		ByteBuffer k = ByteBuffer.wrap(misses[c.next()]);
+		hashMap.put(k, VALUE);
+		return hashMap.remove(k);
+	}
+}
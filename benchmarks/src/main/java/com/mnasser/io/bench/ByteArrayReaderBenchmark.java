@@ -0,0 +1,110 @@
+package com.mnasser.io.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mnasser.io.ByteArrayReader;
+import com.mnasser.io.LineHandler;
+import com.mnasser.io.MappedByteArrayReader;
+
+/**
+ * Reads a 64MB synthetic file line by line, for several line lengths and 
+ * line endings. Each operation is one pass over the whole file.
+ * @author mnasser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteArrayReaderBenchmark {
+
+	static final long FILE_SIZE = 64L * 1024 * 1024;
+	
+	@Param({"16", "128", "1024"})
+	int lineLength;
+	
+	@Param({"LF", "CRLF", "CR"})
+	String ending;
+	
+	File file;
+	
+	@Setup
+	public void setup() throws IOException {
+		byte[] eol = ending.equals("LF") ? new byte[]{'\n'} 
+				: ending.equals("CRLF") ? new byte[]{'\r','\n'} : new byte[]{'\r'};
+		file = File.createTempFile("bar-bench", ".txt");
+		Random r = new Random(42);
+		byte[] line = new byte[lineLength];
+		try( OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16) ){
+			for( long written = 0; written < FILE_SIZE; written += lineLength + eol.length ){
+				for( int ii = 0; ii < lineLength; ii++)
+					line[ii] = (byte)('a' + r.nextInt(26));
+				out.write(line);
+				out.write(eol);
+			}
+		}
+	}
+	
+	@TearDown
+	public void tearDown(){
+		file.delete();
+	}
+	
+	@Benchmark
+	public long readLine(Blackhole bh) throws IOException {
+		try( ByteArrayReader in = new ByteArrayReader(new FileInputStream(file)) ){
+			byte[] line;
+			while( (line = in.readLine()) != null )
+				bh.consume(line);
+			return in.linesRead();
+		}
+	}
+	
+	@Benchmark
+	public long forEachLine(final Blackhole bh) throws IOException {
+		try( ByteArrayReader in = new ByteArrayReader(new FileInputStream(file)) ){
+			return in.forEachLine(new LineHandler() {
+				@Override
+				public boolean onLine(byte[] buf, int off, int len) {
+					bh.consume(len);
+					return true;
+				}
+			});
+		}
+	}
+	
+	@Benchmark
+	public long mappedForEachLine(final Blackhole bh) throws IOException {
+		try( MappedByteArrayReader in = new MappedByteArrayReader(file) ){
+			return in.forEachLine(new LineHandler() {
+				@Override
+				public boolean onLine(byte[] buf, int off, int len) {
+					bh.consume(len);
+					return true;
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.mnasser.io.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mnasser.io.ByteBuilder;
+import com.mnasser.io.MutableByteBuilder;
+import com.mnasser.io.RingByteBuilder;
+
+/**
+ * ByteBuilder append/indexOf/delete/split/hashCode. 
+ * <p>
+ * The <code>*Loop</code> benchmarks are the per byte loops ByteBuilder used
+ * before its bulk copy and SWAR search paths, kept for comparison.
+ * @author mnasser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteBuilderBenchmark {
+
+	private static final byte NL = (byte)'\n';
+	private static final byte[] EOL = { (byte)'\n', (byte)'\r' };
+	
+	@Param({"16", "256", "4096"})
+	int size;
+	
+	/** tab separated letters ending in a single \n */
+	byte[] data;
+	ByteBuilder full;
+	MutableByteBuilder scratch;
+	ByteBuilder plain;
+	RingByteBuilder ring;
+	
+	@Setup
+	public void setup(){
+		Random r = new Random(42);
+		data = new byte[size];
+		for( int ii = 0; ii < size; ii++)
+			data[ii] = ( ii % 8 == 7 ) ? (byte)'\t' : (byte)('a' + r.nextInt(26));
+		data[size - 1] = NL;
+		full = new ByteBuilder(data);
+		scratch = new MutableByteBuilder(size);
+		plain = new ByteBuilder(size);
+		ring = new RingByteBuilder(size);
+	}
+	
+	@Benchmark
+	public int append(){
+		plain.clear();
+		plain.append(data);
+		return plain.length();
+	}
+	
+	@Benchmark
+	public int appendLoop(){
+		scratch.clear();
+		byte[] b = scratch.getContent();
+		for( int ii = 0; ii < size; ii++)
+			b[ii] = data[ii];
+		scratch.incrLength(size);
+		return scratch.length();
+	}
+	
+	@Benchmark
+	public int indexOf(){
+		return full.indexOf(NL);
+	}
+	
+	@Benchmark
+	public int indexOfLoop(){
+		for( int ii = 0; ii < size; ii++)
+			if( data[ii] == NL ) return ii;
+		return -1;
+	}
+	
+	@Benchmark
+	public int indexOfAny(){
+		return full.indexOfAny(EOL);
+	}
+	
+	/** Consumes the builder from the front 16 bytes at a time, as a reader does. */
+	@Benchmark
+	public int deleteFront(){
+		plain.clear();
+		plain.append(data);
+		while( ! plain.isEmpty() )
+			plain.delete(0, 16);
+		return plain.length();
+	}
+	
+	/** deleteFront() with the byte by byte shift delete() used to do. */
+	@Benchmark
+	public int deleteFrontLoop(){
+		scratch.clear();
+		byte[] b = scratch.getContent();
+		System.arraycopy(data, 0, b, 0, size);
+		int position = size;
+		while( position > 0 ){
+			if( 16 >= position ){
+				position = 0;
+				break;
+			}
+			int idx = 0;
+			for( ; (idx+16) < position ; idx++){
+				b[idx] = b[idx + 16];
+			}
+			position = idx;
+		}
+		return position;
+	}
+	
+	@Benchmark
+	public int reset(){
+		scratch.reset(data);
+		return scratch.length();
+	}
+	
+	/** reset() with the per byte copy MutableByteBuilder.reset() used to do. */
+	@Benchmark
+	public int resetLoop(){
+		scratch.clear();
+		byte[] b = scratch.getContent();
+		int p = 0;
+		for( byte bite : data ){
+			b[p] = bite;
+			p++;
+		}
+		scratch.incrLength(p);
+		return scratch.length();
+	}
+	
+	@Benchmark
+	public int deleteFrontRing(){
+		ring.clear();
+		ring.append(data);
+		while( ! ring.isEmpty() )
+			ring.delete(0, 16);
+		return ring.length();
+	}
+	
+	@Benchmark
+	public List<byte[]> split(){
+		return full.split((byte)'\t');
+	}
+	
+	@Benchmark
+	public int hashCodeBytes(){
+		return ByteBuilder.hashCode(data);
+	}
+}
@@ -0,0 +1,58 @@
+package com.mnasser.io.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mnasser.io.ByteHasher;
+
+/**
+ * Cost of hashing one key with each {@link ByteHasher} against the default 
+ * <code>31*h + b</code> of ByteBuilder.hashCode().
+ * @author mnasser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteHasherBenchmark {
+
+	@Param({"8", "16", "64", "1024"})
+	int length;
+	
+	@Param({"java", "xxHash64", "wyHash", "murmur3"})
+	String hasher;
+	
+	ByteHasher h;
+	byte[] key;
+	
+	@Setup
+	public void setup(){
+		switch( hasher ){
+		case "xxHash64": h = ByteHasher.xxHash64(); break;
+		case "wyHash":   h = ByteHasher.wyHash(); break;
+		case "murmur3":  h = ByteHasher.murmur3(); break;
+		default:         h = ByteHasher.java();
+		}
+		key = new byte[length];
+		new Random(42).nextBytes(key);
+	}
+	
+	@Benchmark
+	public long hash64(){
+		return h.hash64(key, 0, key.length);
+	}
+}
@@ -0,0 +1,628 @@
+package com.mnasser.io;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded cache with byte[] keys, meant to sit in front of expensive lookups.
+ * <p>
+ * Keys are compared by content like {@link ByteArrayMap} (which holds the index)
+ * and are copied on insert. The cache is bounded either by a number of entries or,
+ * when given a weigher, by a total weight of <code>key.length + weigher(value)</code>
+ * bytes. Once the bound is exceeded entries are evicted according to one of the
+ * {@link Eviction} policies. Entries may also expire a fixed time after they were
+ * last written, see {@link #expireAfterWrite(long, TimeUnit)}.
+ * <p>
+ * Hits, misses, evictions and expirations are counted for tuning.
+ * </br></br>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ */
+@SuppressWarnings("unchecked")
+public class ByteArrayCache<V> {
+
+	/**
+	 * How entries are picked for eviction once the cache is full.
+	 */
+	public enum Eviction {
+		/** Evicts the least recently used entry. */
+		LRU,
+		/** Second chance approximation of LRU, a hit only sets a reference bit. */
+		CLOCK,
+		/**
+		 * Window TinyLFU. New entries go through a small LRU window and are only
+		 * admitted to the main segmented LRU if they were seen more often than the
+		 * entry they would displace. Resists scans and one-hit wonders.
+		 */
+		TINY_LFU
+	}
+
+	private ByteArrayMap<Node> map = new ByteArrayMap<Node>();
+	private final long maxWeight;
+	private final ToIntFunction<? super V> weigher;
+	private final Policy policy;
+	private long weight = 0;
+
+	private long ttl = 0; // nanos, 0 means never expire
+	private final ArrayDeque<Node> writes = new ArrayDeque<Node>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	/**
+	 * LRU cache holding at most maxEntries entries.
+	 */
+	public ByteArrayCache(int maxEntries) {
+		this(maxEntries, Eviction.LRU);
+	}
+	/**
+	 * Cache holding at most maxEntries entries.
+	 */
+	public ByteArrayCache(int maxEntries, Eviction eviction) {
+		this(maxEntries, null, eviction);
+	}
+	/**
+	 * Cache bounded by weight. An entry weighs its key length plus whatever the
+	 * weigher returns for its value, e.g. <code>v -> v.length</code> for byte[] values.
+	 * @param maxBytes total weight the cache may hold
+	 * @param weigher weight of a value, must not be negative
+	 * @param eviction
+	 */
+	public ByteArrayCache(long maxBytes, ToIntFunction<? super V> weigher, Eviction eviction) {
+		if( maxBytes <= 0 )
+			throw new IllegalArgumentException("Maximum size must be positive : " + maxBytes);
+		this.maxWeight = maxBytes;
+		this.weigher = weigher;
+		switch( eviction ){
+		case LRU:      policy = new Lru(); break;
+		case CLOCK:    policy = new Clock(); break;
+		case TINY_LFU: policy = new TinyLfu(); break;
+		default: throw new IllegalArgumentException("Unknown eviction : " + eviction);
+		}
+	}
+
+	/**
+	 * Expires entries once the given time has passed since they were last put.
+	 * Expired entries are dropped lazily on the next operation.
+	 * @param duration 0 to never expire
+	 * @param unit
+	 * @return this cache
+	 */
+	public ByteArrayCache<V> expireAfterWrite(long duration, TimeUnit unit){
+		if( duration < 0 )
+			throw new IllegalArgumentException("Negative duration : " + duration);
+		ttl = unit.toNanos(duration);
+		return this;
+	}
+
+	/**
+	 * Returns the value cached for this key, null if absent or expired.
+	 */
+	public V get(byte[] key){
+		return get(key, 0, key.length);
+	}
+	/**
+	 * Same as <code>get(Arrays.copyOfRange(buf, off, off + len))</code> without the copy.
+	 */
+	public V get(byte[] buf, int off, int len){
+		expire();
+		Node n = map.get(buf, off, len);
+		if( n == null ){
+			misses++;
+			policy.onMiss(buf, off, len);
+			return null;
+		}
+		hits++;
+		policy.onAccess(n);
+		return (V) n.value;
+	}
+	/**
+	 * Returns the value cached for this key, calling the loader and caching its
+	 * result on a miss. A null from the loader is returned but not cached.
+	 */
+	public V get(byte[] key, Function<? super byte[], ? extends V> loader){
+		V v = get(key);
+		if( v == null ){
+			v = loader.apply(key);
+			if( v != null ) put(key, v, true);
+		}
+		return v;
+	}
+
+	/**
+	 * Caches a value for this key, evicting other entries if that makes the cache
+	 * exceed its bound. An entry heavier than the whole cache is not kept.
+	 * @return the value previously cached for this key, null if none
+	 */
+	public V put(byte[] key, V value){
+		return put(key, value, false);
+	}
+	/**
+	 * @param missed a get() just missed this key, which already counted as a use
+	 */
+	private V put(byte[] key, V value, boolean missed){
+		if( value == null )
+			throw new NullPointerException("Null values are not cached");
+		long now = expire();
+		int w = weigh(key, value);
+		Node n = map.get(key);
+
+		if( w > maxWeight ){
+			if( n == null ) return null;
+			evictEntry(n);
+			return (V) n.value;
+		}
+
+		if( n != null ){
+			Object old = n.value;
+			n.value = value;
+			if( n.list != null ) n.list.weight += w - n.weight;
+			weight += w - n.weight;
+			n.weight = w;
+			written(n, now);
+			policy.onAccess(n);
+			policy.evict();
+			return (V) old;
+		}
+
+		n = new Node(key.clone(), ByteKeyTable.hash(key), value, w);
+		map.putOwned(n.key, n);
+		weight += w;
+		written(n, now);
+		policy.onInsert(n, missed);
+		policy.evict();
+		return null;
+	}
+
+	/**
+	 * Drops this key from the cache.
+	 * @return the value that was cached, null if none
+	 */
+	public V remove(byte[] key){
+		expire();
+		Node n = map.get(key);
+		if( n == null ) return null;
+		removeEntry(n);
+		return (V) n.value;
+	}
+
+	/**
+	 * Whether this key is cached. Does not count as a hit or miss, nor as a use
+	 * of the entry for eviction purposes.
+	 */
+	public boolean containsKey(byte[] key){
+		expire();
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Drops all entries. Statistics are kept.
+	 */
+	public void clear(){
+		map = new ByteArrayMap<Node>();
+		for( Node n : writes ) n.live = false;
+		writes.clear();
+		policy.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Drops expired entries now rather than on the next operation.
+	 */
+	public void cleanUp(){
+		expire();
+	}
+
+	public int size(){
+		expire();
+		return map.size();
+	}
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+	/**
+	 * Current total weight, the number of entries if the cache has no weigher.
+	 */
+	public long weight(){
+		expire();
+		return weight;
+	}
+	public long maxWeight(){
+		return maxWeight;
+	}
+
+	public long hits(){
+		return hits;
+	}
+	public long misses(){
+		return misses;
+	}
+	/**
+	 * Number of entries dropped to stay within the size bound.
+	 */
+	public long evictions(){
+		return evictions;
+	}
+	/**
+	 * Number of entries dropped because they expired.
+	 */
+	public long expirations(){
+		return expirations;
+	}
+	/**
+	 * Fraction of lookups that were hits, 1.0 if there were none.
+	 */
+	public double hitRate(){
+		long total = hits + misses;
+		return ( total == 0 ) ? 1.0 : (double) hits / total;
+	}
+	public void resetStats(){
+		hits = misses = evictions = expirations = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "ByteArrayCache[size=" + map.size() + ", weight=" + weight + "/" + maxWeight
+				+ ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+				+ ", expirations=" + expirations + "]";
+	}
+
+	private int weigh(byte[] key, V value){
+		if( weigher == null ) return 1;
+		int w = weigher.applyAsInt(value);
+		if( w < 0 )
+			throw new IllegalArgumentException("Negative weight : " + w);
+		return key.length + w;
+	}
+
+	private void removeEntry(Node n){
+		map.remove(n.key);
+		policy.onRemove(n);
+		weight -= n.weight;
+		n.live = false;
+	}
+	private void evictEntry(Node n){
+		removeEntry(n);
+		evictions++;
+	}
+
+	/**
+	 * Queues the entry for expiry. Rewritten entries are queued again, the stale
+	 * queue slots are skipped when they reach the head.
+	 */
+	private void written(Node n, long now){
+		if( ttl == 0 ) return;
+		n.expiresAt = now + ttl;
+		n.queued++;
+		writes.addLast(n);
+	}
+
+	/**
+	 * Drops entries whose time is up. Writes are queued in order, so this stops at
+	 * the first live entry that hasn't expired.
+	 * @return the current time, 0 if entries never expire
+	 */
+	private long expire(){
+		if( ttl == 0 ) return 0;
+		long now = System.nanoTime();
+		Node n;
+		while( (n = writes.peekFirst()) != null ){
+			if( n.live && n.queued == 1 && n.expiresAt - now > 0 ) break;
+			writes.pollFirst();
+			if( --n.queued == 0 && n.live ){
+				removeEntry(n);
+				expirations++;
+			}
+		}
+		return now;
+	}
+
+	/**
+	 * A cached entry, also a link in whichever eviction list holds it.
+	 */
+	static final class Node {
+		final byte[] key;
+		final int hash;
+		Object value;
+		int weight;
+		long expiresAt;
+		int queued = 0; // slots in the expiry queue
+		boolean live = true;
+		boolean referenced = false;
+
+		Node prev, next;
+		NodeList list;
+
+		Node(){ // list head
+			this(null, 0, null, 0);
+		}
+		Node(byte[] key, int hash, Object value, int weight){
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Circular doubly linked list of nodes around a sentinel head, most recently
+	 * added first. Tracks the total weight of its nodes.
+	 */
+	static final class NodeList {
+		final Node head = new Node();
+		long weight = 0;
+		int size = 0;
+
+		NodeList(){
+			head.prev = head.next = head;
+		}
+		void addFirst(Node n){
+			addBefore(head.next, n);
+		}
+		void addBefore(Node at, Node n){
+			n.next = at;
+			n.prev = at.prev;
+			at.prev.next = n;
+			at.prev = n;
+			n.list = this;
+			weight += n.weight;
+			size++;
+		}
+		void unlink(Node n){
+			n.prev.next = n.next;
+			n.next.prev = n.prev;
+			n.prev = n.next = null;
+			n.list = null;
+			weight -= n.weight;
+			size--;
+		}
+		void moveToFront(Node n){
+			if( head.next == n ) return;
+			unlink(n);
+			addFirst(n);
+		}
+		Node last(){
+			return ( size == 0 ) ? null : head.prev;
+		}
+		void clear(){
+			head.prev = head.next = head;
+			weight = 0;
+			size = 0;
+		}
+	}
+
+	/**
+	 * Keeps the eviction order. Is told about every insert, hit, miss and removal
+	 * and evicts entries until the cache is back within its bound.
+	 */
+	private abstract class Policy {
+		/**
+		 * @param missed the insert follows a miss on the same key, already 
+		 * reported to onMiss()
+		 */
+		abstract void onInsert(Node n, boolean missed);
+		abstract void onAccess(Node n);
+		abstract void onRemove(Node n);
+		abstract void evict();
+		abstract void clear();
+		void onMiss(byte[] buf, int off, int len){}
+	}
+
+	private final class Lru extends Policy {
+		final NodeList lru = new NodeList();
+
+		void onInsert(Node n, boolean missed){ lru.addFirst(n); }
+		void onAccess(Node n){ lru.moveToFront(n); }
+		void onRemove(Node n){ lru.unlink(n); }
+		void clear(){ lru.clear(); }
+		void evict(){
+			while( weight > maxWeight )
+				evictEntry(lru.last());
+		}
+	}
+
+	/**
+	 * Entries sit in a ring swept by a hand. The hand clears the reference bit of
+	 * entries that were hit since its last pass and evicts the first one without it.
+	 * New entries go right behind the hand so they get a full turn.
+	 */
+	private final class Clock extends Policy {
+		final NodeList ring = new NodeList();
+		Node hand = null;
+
+		void onInsert(Node n, boolean missed){
+			if( hand == null ){
+				ring.addFirst(n);
+				hand = n;
+			}else{
+				ring.addBefore(hand, n);
+			}
+		}
+		void onAccess(Node n){ n.referenced = true; }
+		void onRemove(Node n){
+			if( hand == n )
+				hand = ( ring.size == 1 ) ? null : advance(n);
+			ring.unlink(n);
+		}
+		void clear(){
+			ring.clear();
+			hand = null;
+		}
+		void evict(){
+			while( weight > maxWeight ){
+				Node n = hand;
+				if( n.referenced ){
+					n.referenced = false;
+					hand = advance(n);
+				}else{
+					evictEntry(n);
+				}
+			}
+		}
+		Node advance(Node n){
+			n = n.next;
+			return ( n == ring.head ) ? n.next : n;
+		}
+	}
+
+	/**
+	 * Window TinyLFU. About 1% of the weight goes to an LRU window taking new
+	 * entries, the rest to a segmented LRU split into probation (20%) and protected
+	 * (80%). Entries leaving the window must beat the probation tail on estimated
+	 * access frequency to get in. A hit in probation promotes to protected.
+	 */
+	private final class TinyLfu extends Policy {
+		final NodeList window = new NodeList();
+		final NodeList probation = new NodeList();
+		final NodeList protect = new NodeList();
+		final long windowMax = Math.max(1, maxWeight / 100);
+		final long mainMax = maxWeight - windowMax;
+		final long protectMax = (long)(mainMax * 0.8);
+		final FrequencySketch sketch = new FrequencySketch(
+				(int) Math.min( (weigher == null) ? maxWeight : 1024, 1 << 24) );
+
+		void onInsert(Node n, boolean missed){
+			// growing the sketch forgets the count onMiss() just made
+			if( sketch.ensureCapacity(map.size()) || ! missed )
+				sketch.increment(n.hash);
+			window.addFirst(n);
+		}
+		void onMiss(byte[] buf, int off, int len){
+			sketch.increment( ByteKeyTable.hash(buf, off, len) );
+		}
+		void onAccess(Node n){
+			sketch.increment(n.hash);
+			if( n.list == probation ){
+				probation.unlink(n);
+				protect.addFirst(n);
+				while( protect.weight > protectMax ){
+					Node d = protect.last();
+					protect.unlink(d);
+					probation.addFirst(d);
+				}
+			}else{
+				n.list.moveToFront(n);
+			}
+		}
+		void onRemove(Node n){
+			if( n.list != null ) n.list.unlink(n);
+		}
+		void clear(){
+			window.clear();
+			probation.clear();
+			protect.clear();
+		}
+		void evict(){
+			while( window.weight > windowMax ){
+				Node c = window.last();
+				window.unlink(c);
+				admit(c);
+			}
+			while( weight > maxWeight ){
+				Node v = probation.last();
+				if( v == null ) v = protect.last();
+				if( v == null ) v = window.last();
+				evictEntry(v);
+			}
+		}
+		/**
+		 * Moves a candidate out of the window into probation, if it is used more
+		 * often than what it would displace. Otherwise it is evicted.
+		 */
+		private void admit(Node c){
+			while( probation.weight + protect.weight + c.weight > mainMax ){
+				Node v = probation.last();
+				if( v == null ) v = protect.last();
+				if( v == null ) break;
+				if( sketch.frequency(c.hash) > sketch.frequency(v.hash) ){
+					evictEntry(v);
+				}else{
+					evictEntry(c);
+					return;
+				}
+			}
+			probation.addFirst(c);
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4 bit counters estimating how often a hash was seen.
+	 * Every counter is halved once the number of increments reaches 10 times the
+	 * table size, so that old popularity fades.
+	 */
+	static final class FrequencySketch {
+		private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final long ONE_MASK = 0x7777777777777777L;
+
+		private long[] table;
+		private int mask;
+		private int additions;
+		private int sampleSize;
+
+		FrequencySketch(int expectedSize){
+			allocate(expectedSize);
+		}
+
+		private void allocate(int expectedSize){
+			int size = ByteKeyTable.tableSizeFor( Math.max(expectedSize, 16) );
+			table = new long[size];
+			mask = size - 1;
+			sampleSize = 10 * size;
+			additions = 0;
+		}
+
+		/**
+		 * Grows the table, forgetting all counts, if it is too small for entries.
+		 * @return true if it grew
+		 */
+		boolean ensureCapacity(int entries){
+			if( entries > table.length && table.length < ByteKeyTable.MAX_CAPACITY >> 4 ){
+				allocate(entries << 1);
+				return true;
+			}
+			return false;
+		}
+
+		int frequency(int h){
+			int min = 15;
+			for( int i = 0; i < 4; i++ )
+				min = Math.min(min, (int)(table[index(h, i)] >>> shift(h, i)) & 15);
+			return min;
+		}
+
+		void increment(int h){
+			boolean added = false;
+			for( int i = 0; i < 4; i++ ){
+				int idx = index(h, i);
+				int s = shift(h, i);
+				if( ((table[idx] >>> s) & 15) != 15 ){
+					table[idx] += 1L << s;
+					added = true;
+				}
+			}
+			if( added && ++additions >= sampleSize )
+				reset();
+		}
+
+		private void reset(){
+			for( int i = 0; i < table.length; i++ )
+				table[i] = (table[i] >>> 1) & ONE_MASK;
+			additions >>>= 1;
+		}
+
+		private int index(int h, int i){
+			long x = (h + SEEDS[i]) * SEEDS[i];
+			x += x >>> 32;
+			return (int) x & mask;
+		}
+		/** Bit offset of the i'th counter within its long. */
+		private int shift(int h, int i){
+			return ( ((h >>> (i << 3)) & 3) << 2 | i ) << 2;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.mnasser.io;
+
+import java.util.Arrays;
+
+/**
+ * Hash map lookup from byte[] keys to primitive long values.
+ * <p>
+ * Same open-addressing table as {@link ByteArrayMap} but values are kept in a 
+ * parallel <code>long[]</code>, so neither lookups nor updates box. Counting with 
+ * {@link #increment(byte[])} or {@link #addTo(byte[], long)} only allocates 
+ * when a key is seen for the first time (to store its copy).
+ * </br></br>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ * @see ByteArrayIntMap
+ */
+public class ByteArrayLongMap extends ByteKeyTable {
+
+	private long[] vals; // set by newValues() from the constructor
+	
+	public ByteArrayLongMap() {
+		this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+	}
+	/**
+	 * @param expectedSize number of entries this map should hold before it 
+	 * needs to grow its backing store.
+	 */
+	public ByteArrayLongMap(int expectedSize) {
+		this(expectedSize, DEFAULT_LOAD_FACTOR);
+	}
+	/**
+	 * @param expectedSize number of entries this map should hold before it 
+	 * needs to grow its backing store.
+	 * @param loadFactor fraction of the table that may be filled before it is 
+	 * doubled. Must be between 0 and 1 exclusive.
+	 */
+	public ByteArrayLongMap(int expectedSize, float loadFactor) {
+		super(expectedSize, loadFactor, null);
+	}
+	
+	@Override
+	Object newValues(int capacity){
+		long[] old = vals;
+		vals = new long[capacity];
+		return old;
+	}
+	@Override
+	void copyValue(Object oldValues, int from, int to){
+		vals[to] = ((long[])oldValues)[from];
+	}
+	@Override
+	void moveValue(int from, int to){
+		vals[to] = vals[from];
+	}
+	@Override
+	void clearValue(int i){
+		vals[i] = 0;
+	}
+	
+	/**
+	 * Returns the slot holding key, inserting it with a value of 0 if absent.
+	 */
+	private int slotFor(byte[] key){
+		int h = hash(key);
+		int i = probe(key, 0, key.length, h);
+		if( i < 0 )
+			i = insert(-i - 1, Arrays.copyOf(key, key.length), h); /**must copy or else mutability problems*/
+		return i;
+	}
+	
+	/**
+	 * Returns the value stored at this key.
+	 * @param key
+	 * @param defaultValue returned if the key is absent
+	 * @return
+	 */
+	public long getLong(byte[] key, long defaultValue){
+		int i = indexOf(key, 0, key.length, hash(key));
+		return ( i == -1 ) ? defaultValue : vals[i];
+	}
+	
+	/**
+	 * Stores the value at this key.
+	 * @param key
+	 * @param value
+	 * @return the previous value, 0 if the key was absent
+	 */
+	public long put(byte[] key, long value){
+		int i = slotFor(key);
+		long old = vals[i];
+		vals[i] = value;
+		return old;
+	}
+	
+	/**
+	 * Adds delta to the value stored at this key, treating an absent key as 0.
+	 * @param key
+	 * @param delta
+	 * @return the new value
+	 */
+	public long addTo(byte[] key, long delta){
+		int i = slotFor(key);
+		return vals[i] += delta;
+	}
+	
+	/**
+	 * Adds one to the value stored at this key, treating an absent key as 0.
+	 * @param key
+	 * @return the new value
+	 */
+	public long increment(byte[] key){
+		return addTo(key, 1);
+	}
+	
+	/**
+	 * Determines if a key is present 
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(byte[] key){
+		return indexOf(key, 0, key.length, hash(key)) != -1;
+	}
+	
+	/**
+	 * Removes an entry.
+	 * @param key
+	 * @return true if the key was present
+	 */
+	public boolean remove(byte[] key){
+		int i = indexOf(key, 0, key.length, hash(key));
+		if( i == -1 ) return false;
+		removeAt(i);
+		return true;
+	}
+	
+	public int size(){
+		return entries;
+	}
+	
+	public boolean isEmpty(){
+		return entries == 0;
+	}
+	
+	public void clear(){
+		clearTable();
+	}
+}
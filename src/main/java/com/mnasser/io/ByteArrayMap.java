@@ -1,68 +1,130 @@
 package com.mnasser.io;
 
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Acts as a hash map lookup where byte[] are keys. 
  * </br></br>
+ * Entries are kept in flat parallel arrays (keys, hash codes, values) using 
+ * open addressing with linear probing. The table doubles whenever the load 
+ * factor is exceeded, so lookups stay O(1) as the map grows. Stored hash codes
+ * let a probe skip the full byte comparison of non-matching keys. Keys are 
+ * hashed with {@link ByteBuilder#hashCode(byte[], int, int)} unless a 
+ * {@link ByteHasher} is given, which is worth it for long or similar keys.
+ * </br></br>
+ * {@link #cursor()} and {@link #forEach(BiConsumer)} walk the table without 
+ * allocating anything per entry. The keySet(), values() and entrySet() views are 
+ * live and backed by the table too; only entrySet() creates an object per entry.
+ * </br></br>
  * NOTE: <strong>Not thread safe</safe>
  * @author mnasser
  *
  */
 @SuppressWarnings("unchecked")
-public class ByteArrayMap<V> implements Map<byte[], V>{
+public class ByteArrayMap<V> extends ByteKeyTable implements Map<byte[], V>{
 
-	// private int threshold = 70; 
-	private int bucketSize = 100;
-	private int entries = 0;
-	private ArrayList<Entry<V>>[] buckets =  new ArrayList[bucketSize];
+	private Object[] vals; // set by newValues() from the constructor
 
-	private static class Entry<V>{
-		final byte[] key;
-		V value;
-		
-		Entry(byte[] k) {  key = k ; }
-		
-		public boolean equals(byte[] other){
-			return ByteBuilder.equals(key, other);
-		}
-		@Override
-		public boolean equals(Object obj) {
-			if( this == obj ) return true;
-			if( obj instanceof Entry<?> ){
-				Entry<V> e = (Entry<V>)obj;
-				return ByteBuilder.equals(key, e.key);
-			}
-			return false;
-		}
+	public ByteArrayMap() {
+		this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
 	}
-
+	/**
+	 * @param expectedSize number of entries this map should hold before it 
+	 * needs to grow its backing store.
+	 */
+	public ByteArrayMap(int expectedSize) {
+		this(expectedSize, DEFAULT_LOAD_FACTOR);
+	}
+	/**
+	 * @param expectedSize number of entries this map should hold before it 
+	 * needs to grow its backing store.
+	 * @param loadFactor fraction of the table that may be filled before it is 
+	 * doubled. Must be between 0 and 1 exclusive.
+	 */
+	public ByteArrayMap(int expectedSize, float loadFactor) {
+		this(expectedSize, loadFactor, null);
+	}
+	/**
+	 * @param expectedSize number of entries this map should hold before it 
+	 * needs to grow its backing store.
+	 * @param hasher hash function for the keys, e.g. {@link ByteHasher#xxHash64()} 
+	 * or {@link ByteHasher#seeded()} for keys from untrusted input.
+	 */
+	public ByteArrayMap(int expectedSize, ByteHasher hasher) {
+		this(expectedSize, DEFAULT_LOAD_FACTOR, hasher);
+	}
+	/**
+	 * @param expectedSize number of entries this map should hold before it 
+	 * needs to grow its backing store.
+	 * @param loadFactor fraction of the table that may be filled before it is 
+	 * doubled. Must be between 0 and 1 exclusive.
+	 * @param hasher hash function for the keys, null for the default.
+	 */
+	public ByteArrayMap(int expectedSize, float loadFactor, ByteHasher hasher) {
+		super(expectedSize, loadFactor, hasher);
+	}
+	
+	@Override
+	Object newValues(int capacity){
+		Object[] old = vals;
+		vals = new Object[capacity];
+		return old;
+	}
+	@Override
+	void copyValue(Object oldValues, int from, int to){
+		vals[to] = ((Object[])oldValues)[from];
+	}
+	@Override
+	void moveValue(int from, int to){
+		vals[to] = vals[from];
+	}
+	@Override
+	void clearValue(int i){
+		vals[i] = null;
+	}
+	
 	@Override
 	public V put(byte[] key, V map){
-		int currhash = bucket(key);
-		ArrayList<Entry<V>> al = buckets[ currhash ];
-		if( al == null ){
-			al = new ArrayList<Entry<V>>();
-			buckets[ currhash ] = al; 
-			bucketSize++;
-		}
-		
-		for( Entry<V> e : al){
-			if( e.equals(key)) {
-				e.value = map;
-				return map; 
-			}
-		}
-		
-		Entry<V> e = new Entry<V>(Arrays.copyOf(key,key.length)); /**must copy or else mutability problems*/
-		e.value = map;
-		al.add(e);
-		entries++;
+		return put(key, 0, key.length, map);
+	}
+	/**
+	 * Same as <code>put(Arrays.copyOfRange(buf, off, off + len), map)</code> 
+	 * but only copies the key if it isn't already present.
+	 * @param buf buffer holding the key
+	 * @param off index of the key's first byte
+	 * @param len length of the key
+	 * @param map value to store
+	 * @return
+	 */
+	public V put(byte[] buf, int off, int len, V map){
+		int h = hashOf(buf, off, len);
+		int i = probe(buf, off, len, h);
+		if( i < 0 )
+			i = insert(-i - 1, Arrays.copyOfRange(buf, off, off + len), h); /**must copy or else mutability problems*/
+		vals[i] = map;
+		return map;
+	}
+	/**
+	 * Same as put() but stores the key array itself rather than a copy. 
+	 * The caller must never modify it afterwards.
+	 */
+	V putOwned(byte[] key, V map){
+		int h = hashOf(key, 0, key.length);
+		int i = probe(key, 0, key.length, h);
+		if( i < 0 )
+			i = insert(-i - 1, key, h);
+		vals[i] = map;
 		return map;
 	}
 	/**
@@ -71,46 +133,179 @@ public class ByteArrayMap<V> implements Map<byte[], V>{
 	 * @return
 	 */
 	public V get(byte[] key){
-		ArrayList<Entry<V>> al = buckets[ bucket(key) ];
-		if( al == null ) return null;
-		for( Entry<V> e : al){
-			if( e.equals(key)) {
-				return e.value;
+		return get(key, 0, key.length);
+	}
+	/**
+	 * Returns the value stored at the key found in buf[off, off+len), without 
+	 * copying it out. Null otherwise.
+	 * @param buf buffer holding the key, e.g. a line from {@link ByteArrayReader#forEachLine(LineHandler)}
+	 * @param off index of the key's first byte
+	 * @param len length of the key
+	 * @return
+	 */
+	public V get(byte[] buf, int off, int len){
+		int i = indexOf(buf, off, len, hashOf(buf, off, len));
+		return ( i == -1 ) ? null : (V)vals[i];
+	}
+	
+	/**
+	 * Calls the action for every entry, in table order. The key handed over is 
+	 * the map's own array and must not be modified.
+	 */
+	@Override
+	public void forEach(BiConsumer<? super byte[], ? super V> action){
+		byte[][] ks = keys;
+		Object[] vs = vals;
+		for( int ii = 0, len = ks.length; ii < len; ii++ ){
+			if( ks[ii] != null )
+				action.accept(ks[ii], (V)vs[ii]);
+		}
+	}
+	
+	/**
+	 * Returns a cursor positioned before the first entry. 
+	 * <pre>
+	 * ByteArrayMap&lt;V&gt;.Cursor c = map.cursor();
+	 * while( c.advance() ) 
+	 *     out.write(c.key()); ...
+	 * </pre>
+	 */
+	public Cursor cursor(){
+		return new Cursor();
+	}
+	
+	/**
+	 * Walks the entries in table order without allocating. The map must not be 
+	 * modified while walking except through {@link #setValue(Object)}, 
+	 * {@link #remove()} or by putting a new value for a key already present.
+	 */
+	public final class Cursor {
+		private int next = 0;
+		private int current = -1;
+		// keys moved from the start of the table past the cursor by a remove(), already seen
+		private ArrayList<byte[]> wrapped = null;
+		
+		private Cursor(){}
+		
+		/**
+		 * Moves to the next entry.
+		 * @return false once there are no entries left
+		 */
+		public boolean advance(){
+			current = seek(next);
+			if( current == -1 ){
+				next = keys.length;
+				return false;
+			}
+			next = current + 1;
+			return true;
+		}
+		/**
+		 * Key of the current entry. This is the map's own array and must not be modified.
+		 */
+		public byte[] key(){
+			return keys[check()];
+		}
+		public V value(){
+			return (V)vals[check()];
+		}
+		/**
+		 * Replaces the value of the current entry.
+		 * @return the previous value
+		 */
+		public V setValue(V value){
+			int i = check();
+			V old = (V)vals[i];
+			vals[i] = value;
+			return old;
+		}
+		/**
+		 * Removes the current entry. The cursor then sits between entries again.
+		 */
+		public void remove(){
+			int i = check();
+			if( wrapped == null ) wrapped = new ArrayList<byte[]>(2);
+			removeAt(i, wrapped);
+			next = i; // an entry from further on may have moved into slot i
+			current = -1;
+		}
+		
+		private int check(){
+			if( current == -1 ) throw new IllegalStateException("No current entry");
+			return current;
+		}
+		/**
+		 * Index of the first entry at or after from that has not been seen yet, -1 if none.
+		 */
+		private int seek(int from){
+			byte[][] ks = keys;
+			for( int i = from, len = ks.length; i < len; i++ ){
+				if( ks[i] != null && ! seen(ks[i]) ) return i;
+			}
+			return -1;
+		}
+		private boolean seen(byte[] k){
+			if( wrapped == null || wrapped.isEmpty() ) return false;
+			for( int ii = 0; ii < wrapped.size(); ii++ ){
+				if( wrapped.get(ii) == k ) return true;
 			}
+			return false;
 		}
-		return null;
 	}
+	
 	/**
-	 * Returns which bucket index this key should fall under.
-	 * @param key
-	 * @return
+	 * Iterator over a cursor, hasNext() looks ahead without moving it so that 
+	 * remove() still removes the entry last returned.
 	 */
-	int bucket(byte[] key){
-		int mod = ByteBuilder.hashCode(key) % buckets.length;
-		if (mod < 0) mod = mod + buckets.length; // corrected modulus 
-		return mod;
+	private abstract class TableIterator<E> implements Iterator<E> {
+		final Cursor c = new Cursor();
+		
+		@Override
+		public boolean hasNext() {
+			return c.seek(c.next) != -1;
+		}
+		@Override
+		public E next() {
+			if( ! c.advance() ) throw new NoSuchElementException();
+			return element();
+		}
+		@Override
+		public void remove() {
+			c.remove();
+		}
+		abstract E element();
 	}
 	
+	/**
+	 * Live view of the values.
+	 */
 	@Override
 	public Collection<V> values(){
-		LinkedList<V> ll = new LinkedList<V>();
-		ArrayList<Entry<V>> curr = null;
-		for( int ii = 0 ; ii< buckets.length; ii++){
-			curr = buckets[ii];
-			if( curr != null && ! curr.isEmpty()){
-				for( Entry<V> e : curr){
-					ll.add(e.value);
-				}
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new TableIterator<V>() {
+					V element() { return c.value(); }
+				};
 			}
-		}
-		return ll;
+			@Override
+			public int size() {
+				return entries;
+			}
+			@Override
+			public boolean contains(Object o) {
+				return containsValue(o);
+			}
+			@Override
+			public void clear() {
+				ByteArrayMap.this.clear();
+			}
+		};
 	}
 	
 	@Override
 	public void clear() {
-		buckets = new ArrayList[100];
-		bucketSize = 0;
-		entries = 0;
+		clearTable();
 		System.gc(); // needed? 
 	}
 	/**
@@ -119,14 +314,17 @@ public class ByteArrayMap<V> implements Map<byte[], V>{
 	 * @return
 	 */
 	public boolean containsKey(byte[] key) {
-		ArrayList<Entry<V>> al = buckets[ bucket(key) ];
-		if( al == null || al.isEmpty() ) return false;
-		for( Entry<V> e : al){
-			if( e.equals(key)) {
-				return true;
-			}
-		}
-		return false;
+		return containsKey(key, 0, key.length);
+	}
+	/**
+	 * Determines if the key found in buf[off, off+len) is present
+	 * @param buf
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public boolean containsKey(byte[] buf, int off, int len) {
+		return indexOf(buf, off, len, hashOf(buf, off, len)) != -1;
 	}
 	/**
 	 * Removes an entry.
@@ -135,32 +333,88 @@ public class ByteArrayMap<V> implements Map<byte[], V>{
 	 * @return
 	 */
 	public V remove(byte[] key) {
-		int b = bucket(key);
-		ArrayList<Entry<V>> al = buckets[ b ];
-		if( al == null ) return null;
-		Entry<V> e;
-		for( int ii = 0, len = al.size(); ii < len; ii++){
-			e = al.get(ii);
-			if( e.equals(key)) {
-				al.remove(ii);
-				entries--;
-				if ( al.isEmpty() ){
-					al = null;
-					buckets[ b ] = null; // ?
-					bucketSize--;
-				}
-				return e.value;
-			}
-		}
-		return null;
+		return remove(key, 0, key.length);
+	}
+	/**
+	 * Removes the entry whose key is found in buf[off, off+len).
+	 * @param buf
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public V remove(byte[] buf, int off, int len) {
+		int i = indexOf(buf, off, len, hashOf(buf, off, len));
+		if( i == -1 ) return null;
+		V v = (V)vals[i];
+		removeAt(i);
+		return v;
 	}
+	/**
+	 * Linear scan of the table.
+	 */
 	@Override
 	public boolean containsValue(Object value) {
-		throw new RuntimeException("Unsupported Method Exception");
+		byte[][] ks = keys;
+		Object[] vs = vals;
+		for( int ii = 0, len = ks.length; ii < len; ii++ ){
+			if( ks[ii] != null && Objects.equals(value, vs[ii]) ) return true;
+		}
+		return false;
 	}
+	/**
+	 * Live view of the entries. Each entry's setValue() writes through to the map.
+	 */
 	@Override
 	public Set<java.util.Map.Entry<byte[], V>> entrySet() {
-		throw new RuntimeException("Unsupported Method Exception");
+		return new AbstractSet<Entry<byte[],V>>() {
+			@Override
+			public Iterator<Entry<byte[], V>> iterator() {
+				return new TableIterator<Entry<byte[],V>>() {
+					Entry<byte[], V> element() {
+						final byte[] k = c.key();
+						return new SimpleEntry<byte[], V>(k, c.value()){
+							private static final long serialVersionUID = 1L;
+							/**
+							 * Writes into the entry's slot, never inserting, so the table
+							 * can't resize under the iterator.
+							 * @throws IllegalStateException if the entry was removed
+							 */
+							@Override
+							public V setValue(V value) {
+								int i = indexOf(k, 0, k.length, hashOf(k, 0, k.length));
+								if( i == -1 )
+									throw new IllegalStateException("Entry was removed");
+								vals[i] = value;
+								return super.setValue(value);
+							}
+						};
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return entries;
+			}
+			@Override
+			public boolean contains(Object o) {
+				if( !(o instanceof Entry) ) return false;
+				Entry<?,?> e = (Entry<?,?>)o;
+				if( !(e.getKey() instanceof byte[]) ) return false;
+				byte[] k = (byte[])e.getKey();
+				int i = indexOf(k, 0, k.length, hashOf(k, 0, k.length));
+				return i != -1 && Objects.equals(vals[i], e.getValue());
+			}
+			@Override
+			public boolean remove(Object o) {
+				if( ! contains(o) ) return false;
+				ByteArrayMap.this.remove( (byte[])((Entry<?,?>)o).getKey() );
+				return true;
+			}
+			@Override
+			public void clear() {
+				ByteArrayMap.this.clear();
+			}
+		};
 	}
 	@Override
 	public V get(Object key) {
@@ -171,9 +425,37 @@ public class ByteArrayMap<V> implements Map<byte[], V>{
 	public boolean isEmpty() {
 		return entries == 0;
 	}
+	/**
+	 * Live view of the keys. The arrays handed out are the map's own and must not be modified.
+	 */
 	@Override
 	public Set<byte[]> keySet() {
-		throw new RuntimeException("Unsupported Method Exception");
+		return new AbstractSet<byte[]>() {
+			@Override
+			public Iterator<byte[]> iterator() {
+				return new TableIterator<byte[]>() {
+					byte[] element() { return c.key(); }
+				};
+			}
+			@Override
+			public int size() {
+				return entries;
+			}
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof byte[] && containsKey((byte[])o);
+			}
+			@Override
+			public boolean remove(Object o) {
+				if( !(o instanceof byte[]) || ! containsKey((byte[])o) ) return false;
+				ByteArrayMap.this.remove((byte[])o);
+				return true;
+			}
+			@Override
+			public void clear() {
+				ByteArrayMap.this.clear();
+			}
+		};
 	}
 	@Override
 	public void putAll(Map<? extends byte[], ? extends V> m) {
@@ -17,7 +17,7 @@ public class ByteArrayReader implements Closeable{
 
 	// i/o
 	private InputStream in = null;
-	private ByteBuilder bb = new MutableByteBuilder(1024);
+	private RingByteBuilder bb = new RingByteBuilder(1024);
 	private byte[] temp = new byte[bb.getCapacity()];
 	
 	public ByteArrayReader(InputStream is) {
@@ -36,16 +36,24 @@ public class ByteArrayReader implements Closeable{
 	}
 	
 	/**
-	 * Fills ByteBuilder to capacity. 
+	 * Fills ByteBuilder to capacity. Reads straight into the ring buffer, 
+	 * in two parts if the free space wraps around.
 	 * @return
 	 * @throws Exception
 	 */
 	private int fill() throws IOException {
-		int space = bb.space();
+		int space = bb.tailSpace();
 		if( space == 0 ) return 0;
 		
-		int got = in.read(bb.getContent(), bb.length(), space);
+		int got = in.read(bb.array(), bb.arrayIndex(bb.length()), space);
 		if ( got != -1 ) bb.incrLength(got);
+		if ( got == space && (space = bb.tailSpace()) > 0 ){
+			int more = in.read(bb.array(), bb.arrayIndex(bb.length()), space);
+			if ( more > 0 ){
+				bb.incrLength(more);
+				got += more;
+			}
+		}
 		
 		//int got = in.read(temp, 0, Math.min(space,temp.length));
 		//if ( got != -1 ) bb.append(temp, got);
@@ -115,7 +123,6 @@ public class ByteArrayReader implements Closeable{
 	
 	private int LF=0;
 	private int n=0;
-	private int r=0;
 	private int got=0;
 	private int lf_size=0;
 	private byte[] res = null;
@@ -124,6 +131,9 @@ public class ByteArrayReader implements Closeable{
 	private long total_bytes = 0;
 	
 	private final byte NL = (byte)'\n';
+	private final byte CR = (byte)'\r';
+	private final byte[] EOL = { NL, CR };
+	private byte[] scratch = null;
 	
 	/**
 	 * Returns byte[] representing the next line of text not including a line terminator. 
@@ -137,6 +147,7 @@ public class ByteArrayReader implements Closeable{
 	/**
 	 * Returns byte[] representing the next line of text. 
 	 * Keeps filling internal ByteBuilder until a new line is available.
+	 * Lines end at the first \n, \r or \r\n.
 	 * @param appendNL Whether or not to include a proper line terminator in result.
 	 * @return A set of bytes including from 
 	 * @throws Exception
@@ -154,30 +165,24 @@ public class ByteArrayReader implements Closeable{
 			got = fill(); // fill
 		}
 		
-		
-		n = 0; r = 0;
-		do {
-			n = bb.indexOf((byte)'\n', LF);
-			if ( n == -1 ){
-				r = bb.indexOf((byte)'\r', LF);
-				if ( r == -1 ) {
-					got = _read(); // keep reading until linefeed or EOF
-				}
-			}
-		}while( n == -1 && r == -1 && got != -1 );
-		
+		int scan = 0;
+		while( true ){
+			n = bb.indexOfAny(EOL, scan);
+			// a \r at the very end may yet be followed by a \n
+			if( n != -1 && ( bb.byteAt(n) == NL || n + 1 < bb.length() || got == -1 ) ) break;
+			if( n == -1 && got == -1 ) break;
+			scan = ( n == -1 ) ? bb.length() : n;
+			got = _read(); // keep reading until linefeed or EOF
+		}
 		
 		lf_size = 1;
 		
-		if( n != -1 ){ // check for \r before \n
+		if( n != -1 ){
 			LF = n;
-			if( n-1 > 0 && bb.byteAt(n-1) == (byte)'\r' ){
-				LF = n-1;
+			if( bb.byteAt(n) == CR && n + 1 < bb.length() && bb.byteAt(n+1) == NL ){
 				lf_size++;
 			}
-		}else if ( r != -1 ){
-			LF = r;
-		}else if ( got == -1 ){
+		}else{
 			// EOF no more data - return what you got if anything
 			if( bb.isEmpty() )
 				return null;
@@ -194,11 +199,78 @@ public class ByteArrayReader implements Closeable{
 		bb.delete(0, LF+lf_size);
 		
 		total_lines++;
-		total_bytes += LF+lf_size+1;
+		total_bytes += ( n != -1 ) ? LF+lf_size : LF; // an unterminated last line has no line feed
 		
 		return res;
 	}
 	
+	/**
+	 * Hands every remaining line to the handler as a range of the internal buffer,
+	 * without allocating anything per line. Lines end at \n, \r or \r\n.
+	 * <p>
+	 * The only copy made is for a line that wraps around the end of the internal
+	 * ring buffer, which goes through one reused scratch array.
+	 * @param h handler called once per line. The buffer it is given is only valid
+	 * during the call.
+	 * @return number of lines handed to the handler
+	 * @throws IOException
+	 */
+	public long forEachLine(LineHandler h) throws IOException {
+		long lines = 0;
+		int scan = 0; // where to resume looking for a terminator
+		boolean eof = false;
+		
+		while( true ){
+			int end = bb.length();
+			int i = bb.indexOfAny(EOL, scan);
+			if( i == -1 ) i = end;
+			byte c = ( i < end ) ? bb.byteAt(i) : 0;
+			
+			if( i < end && ( c == NL || i + 1 < end || eof ) ){
+				int lf = ( c == CR && i + 1 < end && bb.byteAt(i+1) == NL ) ? 2 : 1;
+				boolean more = onLine(h, i);
+				lines++;
+				total_lines++;
+				total_bytes += i + lf;
+				bb.delete(0, i + lf);
+				scan = 0;
+				if( ! more ) break;
+				continue;
+			}
+			
+			if( eof ){
+				if( end > 0 ){ // last line has no terminator
+					onLine(h, end);
+					lines++;
+					total_lines++;
+					total_bytes += end;
+					bb.clear();
+				}
+				break;
+			}
+			
+			// need more data, a lone \r at the end may yet be followed by \n
+			scan = i;
+			int got = ( bb.space() == 0 ) ? _read() : fill();
+			if( got == -1 ) eof = true;
+		}
+		return lines;
+	}
+	
+	/**
+	 * Hands the first len bytes of the buffer to the handler, 
+	 * unwrapping them into scratch if needed.
+	 */
+	private boolean onLine(LineHandler h, int len) throws IOException {
+		int p = bb.arrayIndex(0);
+		if( p + len <= bb.getCapacity() )
+			return h.onLine(bb.array(), p, len);
+		if( scratch == null || scratch.length < len )
+			scratch = new byte[ Math.max(len, bb.getCapacity()) ];
+		bb.copyTo(0, scratch, 0, len);
+		return h.onLine(scratch, 0, len);
+	}
+	
 	/**
 	 * Current number of lines read so far.
 	 * @return
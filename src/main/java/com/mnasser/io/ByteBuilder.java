@@ -1,5 +1,10 @@
 package com.mnasser.io;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -35,8 +40,9 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	}
 	public ByteBuilder(ByteBuilder bb){
 		position = bb.position;
-		b = Arrays.copyOf(bb.b, bb.length());
-		capacity = bb.position;
+		b = new byte[position];
+		bb.copyTo(0, b, 0, position);
+		capacity = position;
 	}
 
 	/**
@@ -66,7 +72,7 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	 */
 	public ByteBuilder append(byte bite){
 		if( position >= capacity)
-			expandCapacity(position);
+			expandCapacity(position + 1);
 		b[position++] = bite;
 		return this;
 	}
@@ -75,12 +81,7 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	 * @param bite
 	 */
 	public ByteBuilder append(byte[] bb){
-		if( position + bb.length >= capacity)
-			expandCapacity(position + bb.length);
-		for( byte bite : bb ){
-			b[position++] = bite;
-		}
-		return this;
+		return append(bb, 0, bb.length);
 	}
 	/**
 	 * Appends the first <code>length</code> number of bytes from <code>bb</code> to this
@@ -90,15 +91,117 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	 * @return
 	 */
 	public ByteBuilder append(byte[] bb, int length) {
-		if( position + length > capacity){
-			expandCapacity(position + length);
+		return append(bb, 0, length);
+	}
+	/**
+	 * Appends <code>len</code> bytes of <code>bb</code> starting at <code>off</code>
+	 * to this byte builder.
+	 * @param bb byte array whose content is to be append to this sequence of bytes
+	 * @param off index of the first byte to append
+	 * @param len number of bytes to append
+	 * @return
+	 */
+	public ByteBuilder append(byte[] bb, int off, int len) {
+		if( position + len > capacity){
+			expandCapacity(position + len);
 		}
-		for( int ii=0; ii < length; ii++ ){
-			b[position++] = bb[ii];
+		System.arraycopy(bb, off, b, position, len);
+		position += len;
+		return this;
+	}
+	/**
+	 * Appends all the remaining bytes of the buffer to this byte builder,
+	 * advancing the buffer's position to its limit.
+	 * @param buf
+	 * @return
+	 */
+	public ByteBuilder append(ByteBuffer buf) {
+		int len = buf.remaining();
+		if( position + len > capacity){
+			expandCapacity(position + len);
+		}
+		buf.get(b, position, len);
+		position += len;
+		return this;
+	}
+	/**
+	 * Appends the contents of another byte builder to this one.
+	 * @param bb
+	 * @return
+	 */
+	public ByteBuilder append(ByteBuilder bb) {
+		int len = bb.length();
+		if( position + len > capacity){
+			expandCapacity(position + len);
 		}
+		bb.copyTo(0, b, position, len);
+		position += len;
 		return this;
 	}
 
+	/**
+	 * Appends the decimal digits of v, as String.valueOf(v) would but without 
+	 * creating the String.
+	 * @param v
+	 * @return
+	 */
+	public ByteBuilder appendInt(int v) {
+		return appendLong(v);
+	}
+	/**
+	 * Appends the decimal digits of v, as String.valueOf(v) would but without 
+	 * creating the String. The digits are written straight into the backing store.
+	 * @param v
+	 * @return
+	 */
+	public ByteBuilder appendLong(long v) {
+		int len = stringSize(v);
+		if( position + len > capacity){
+			expandCapacity(position + len);
+		}
+		getChars(v, position + len, b);
+		position += len;
+		return this;
+	}
+	/**
+	 * Appends v in plain decimal notation with the fewest fraction digits that 
+	 * parse back to exactly v, e.g. 0.1, 2.0 or -1234.5678, without creating a
+	 * String. That is what String.valueOf(v) gives for zero and 0.001 <= |v| < 10^7.
+	 * Outside that range, for values needing more than 15 or so significant 
+	 * digits and for NaN and the infinities, the String.valueOf(v) text itself 
+	 * is appended.
+	 * @param v
+	 * @return
+	 */
+	public ByteBuilder appendDouble(double v) {
+		double abs = Math.abs(v);
+		if( abs == 0 ){
+			if( Double.doubleToRawLongBits(v) != 0 ) append((byte)'-');
+			return append((byte)'0').append((byte)'.').append((byte)'0');
+		}
+		if( abs >= 1e-3 && abs < 1e7 ){
+			for( int d = 0; d < POWERS_OF_TEN.length && abs * POWERS_OF_TEN[d] < MAX_EXACT; d++){
+				long m = Math.round(abs * POWERS_OF_TEN[d]);
+				if( m / POWERS_OF_TEN[d] != abs ) continue;
+				if( v < 0 ) append((byte)'-');
+				long p = (long)POWERS_OF_TEN[d];
+				appendLong(m / p);
+				append((byte)'.');
+				if( d == 0 ) return append((byte)'0');
+				for( long frac = m % p; d > 0; d-- ){
+					p /= 10;
+					append((byte)('0' + frac / p));
+					frac %= p;
+				}
+				return this;
+			}
+		}
+		String s = String.valueOf(v);
+		for( int ii = 0, len = s.length(); ii < len; ii++)
+			append((byte)s.charAt(ii));
+		return this;
+	}
+	
 	protected void expandCapacity(int minimumCapacity){
 		int newCapacity = getNextCapacitySize(b.length);
 		if (minimumCapacity > newCapacity) {
@@ -116,6 +219,144 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 		return len + len / 2; // grow by 50% instead?
 	}
 	
+	/** 10^0 to 10^22, all exact as doubles */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	/** Longs up to 2^53 convert to double exactly */
+	private static final double MAX_EXACT = 1L << 53;
+	
+	/**
+	 * Number of bytes the decimal form of x takes, including any '-'.
+	 */
+	static int stringSize(long x){
+		int d = 1;
+		if( x >= 0 ){
+			d = 0;
+			x = -x;
+		}
+		long p = -10;
+		for( int i = 1; i < 19; i++){
+			if( x > p ) return i + d;
+			p = 10 * p;
+		}
+		return 19 + d;
+	}
+	/**
+	 * Writes the decimal form of v into buf backwards, ending just before index
+	 * end. Works on the negative value so Long.MIN_VALUE needs no special case.
+	 */
+	static void getChars(long v, int end, byte[] buf){
+		boolean negative = v < 0;
+		if( ! negative ) v = -v;
+		int i = end;
+		while( v <= -10 ){
+			long q = v / 10;
+			buf[--i] = (byte)('0' + (q * 10 - v));
+			v = q;
+		}
+		buf[--i] = (byte)('0' - v);
+		if( negative ) buf[--i] = '-';
+	}
+	
+	/**
+	 * Parses bb[off, off+len) as a signed decimal int, like Integer.parseInt 
+	 * but without creating a String.
+	 * @throws NumberFormatException if the bytes aren't an int
+	 */
+	public static int parseInt(byte[] bb, int off, int len){
+		long v = parseLong(bb, off, len);
+		if( v < Integer.MIN_VALUE || v > Integer.MAX_VALUE )
+			throw numberFormat(bb, off, len);
+		return (int)v;
+	}
+	/**
+	 * Parses bb[off, off+len) as a signed decimal long, like Long.parseLong 
+	 * but without creating a String.
+	 * @throws NumberFormatException if the bytes aren't a long
+	 */
+	public static long parseLong(byte[] bb, int off, int len){
+		if( len <= 0 ) throw numberFormat(bb, off, len);
+		int i = off, end = off + len;
+		boolean negative = false;
+		if( bb[i] == '-' || bb[i] == '+' ){
+			negative = bb[i++] == '-';
+			if( i == end ) throw numberFormat(bb, off, len);
+		}
+		// accumulate negatively, Long.MIN_VALUE has no positive counterpart
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multmin = limit / 10;
+		long v = 0;
+		for( ; i < end; i++){
+			int digit = bb[i] - '0';
+			if( digit < 0 || digit > 9 || v < multmin ) throw numberFormat(bb, off, len);
+			v *= 10;
+			if( v < limit + digit ) throw numberFormat(bb, off, len);
+			v -= digit;
+		}
+		return negative ? v : -v;
+	}
+	/**
+	 * Parses bb[off, off+len) as a double, like Double.parseDouble but without
+	 * creating a String for plain decimals like -12.5 or 3e-4 with at most 15 
+	 * significant digits, which convert exactly in one multiply or divide. 
+	 * Anything else, e.g. NaN, more digits or huge exponents, is handed to 
+	 * Double.parseDouble.
+	 * @throws NumberFormatException if the bytes aren't a double
+	 */
+	public static double parseDouble(byte[] bb, int off, int len){
+		int i = off, end = off + len;
+		boolean negative = false;
+		if( i < end && (bb[i] == '-' || bb[i] == '+') )
+			negative = bb[i++] == '-';
+		long m = 0;
+		int digits = 0, significant = 0, scale = 0;
+		boolean dot = false;
+		for( ; i < end; i++){
+			byte c = bb[i];
+			if( c >= '0' && c <= '9' ){
+				digits++;
+				if( m != 0 || c != '0' ) significant++;
+				if( significant > 18 ) return slowParseDouble(bb, off, len);
+				m = m * 10 + (c - '0');
+				if( dot ) scale--;
+			}else if( c == '.' && ! dot ){
+				dot = true;
+			}else break;
+		}
+		if( digits == 0 ) return slowParseDouble(bb, off, len);
+		if( i < end && (bb[i] == 'e' || bb[i] == 'E') ){
+			int j = ++i;
+			boolean negExp = false;
+			if( i < end && (bb[i] == '-' || bb[i] == '+') )
+				negExp = bb[i++] == '-';
+			int exp = 0;
+			for( ; i < end && bb[i] >= '0' && bb[i] <= '9'; i++){
+				if( exp > 1000 ) return slowParseDouble(bb, off, len);
+				exp = exp * 10 + (bb[i] - '0');
+			}
+			if( i == j || ! ( bb[i - 1] >= '0' && bb[i - 1] <= '9' ) ) return slowParseDouble(bb, off, len);
+			scale += negExp ? -exp : exp;
+		}
+		if( i != end ) return slowParseDouble(bb, off, len);
+		double v;
+		if( m == 0 ){
+			v = 0;
+		}else if( m <= MAX_EXACT && scale >= -22 && scale <= 22 ){
+			v = ( scale < 0 ) ? m / POWERS_OF_TEN[-scale] : m * POWERS_OF_TEN[scale];
+		}else{
+			return slowParseDouble(bb, off, len);
+		}
+		return negative ? -v : v;
+	}
+	private static double slowParseDouble(byte[] bb, int off, int len){
+		return Double.parseDouble(new String(bb, off, len, StandardCharsets.ISO_8859_1));
+	}
+	private static NumberFormatException numberFormat(byte[] bb, int off, int len){
+		return new NumberFormatException("For input string: \"" + new String(bb, off, Math.max(len, 0), StandardCharsets.ISO_8859_1) + "\"");
+	}
+	
 	public byte byteAt(int i) {
 		if( i > position ) throw new IndexOutOfBoundsException("Trying to get an index ("+i+") greater than length : " + position);
 		return b[i];
@@ -143,8 +384,165 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	 */
 	public int indexOf(byte bite, int start) {
 		if( start >= position ) return -1;
-		for( int i = start; i < position; i++){
-			if ( b[i] == bite ) return i;
+		return indexOf(b, bite, Math.max(start, 0), position);
+	}
+	
+	/**
+	 * Returns index of the first occurance of any of the given bytes, 
+	 * e.g. <code>indexOfAny((byte)'\r', (byte)'\n')</code> for the end of a line.
+	 * @param bites
+	 * @return
+	 */
+	public int indexOfAny(byte... bites) {
+		return indexOfAny(bites, 0);
+	}
+	/**
+	 * Returns index of the first occurance of any of the given bytes starting 
+	 * from the given index inclusive.
+	 * @param bites
+	 * @param start
+	 * @return
+	 */
+	public int indexOfAny(byte[] bites, int start) {
+		if( start >= position ) return -1;
+		return indexOfAny(b, Math.max(start, 0), position, bites);
+	}
+	
+	/**
+	 * Returns index of the first occurance of the given sequence of bytes.
+	 * @param pattern
+	 * @return
+	 */
+	public int indexOf(byte[] pattern) {
+		return indexOf(pattern, 0);
+	}
+	/**
+	 * Returns index of the first occurance of the given sequence of bytes 
+	 * starting from the given index inclusive.
+	 * @param pattern
+	 * @param start
+	 * @return
+	 */
+	public int indexOf(byte[] pattern, int start) {
+		if( start > position ) return -1;
+		return indexOf(b, Math.max(start, 0), position, pattern);
+	}
+	
+	/*
+	 * SWAR (SIMD within a register) search: 8 bytes are read as one little 
+	 * endian long and all compared at once.
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	
+	/** Repeats the byte across all 8 bytes of a long. */
+	static long broadcast(byte bite){
+		return ONES * (bite & 0xff);
+	}
+	/**
+	 * Non zero if any byte of word is equal to the byte broadcast in pattern.
+	 * The lowest set bit is the high bit of the first such byte, so 
+	 * <code>numberOfTrailingZeros(m) >>> 3</code> is its index.
+	 */
+	static long matches(long word, long pattern){
+		long x = word ^ pattern;
+		return (x - ONES) & ~x & HIGHS;
+	}
+	
+	/**
+	 * Returns index of the first occurance of the byte in bb[from, to), -1 if none.
+	 * Compares 8 bytes per step.
+	 * @param bb
+	 * @param bite
+	 * @param from start index inclusive
+	 * @param to end index exclusive
+	 * @return
+	 */
+	public static int indexOf(byte[] bb, byte bite, int from, int to){
+		long p = broadcast(bite);
+		int i = from;
+		for( int last = to - 8; i <= last; i += 8){
+			long m = matches((long)LONGS.get(bb, i), p);
+			if( m != 0 ) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+		}
+		for( ; i < to; i++){
+			if( bb[i] == bite ) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns index of the first occurance of any of the given bytes in 
+	 * bb[from, to), -1 if none. Searching for two bytes, like \r and \n, 
+	 * takes a single pass 8 bytes at a time.
+	 * @param bb
+	 * @param from start index inclusive
+	 * @param to end index exclusive
+	 * @param bites
+	 * @return
+	 */
+	public static int indexOfAny(byte[] bb, int from, int to, byte... bites){
+		if( bites.length == 1 ) return indexOf(bb, bites[0], from, to);
+		if( bites.length == 2 ){
+			byte b0 = bites[0], b1 = bites[1];
+			long p0 = broadcast(b0), p1 = broadcast(b1);
+			int i = from;
+			for( int last = to - 8; i <= last; i += 8){
+				long w = (long)LONGS.get(bb, i);
+				long m = matches(w, p0) | matches(w, p1);
+				if( m != 0 ) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+			}
+			for( ; i < to; i++){
+				if( bb[i] == b0 || bb[i] == b1 ) return i;
+			}
+			return -1;
+		}
+		for( int i = from; i < to; i++){
+			for( byte bite : bites ){
+				if( bb[i] == bite ) return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns index of the first occurance of pattern in bb[from, to), -1 if none.
+	 * Short patterns are found by searching for their first byte and then 
+	 * comparing the rest. Longer ones use Boyer-Moore-Horspool, which skips 
+	 * ahead by up to the pattern's length after a mismatch.
+	 * @param bb
+	 * @param from start index inclusive
+	 * @param to end index exclusive
+	 * @param pattern
+	 * @return
+	 */
+	public static int indexOf(byte[] bb, int from, int to, byte[] pattern){
+		int m = pattern.length;
+		int last = to - m;
+		if( m == 0 ) return ( from <= to ) ? from : -1;
+		if( from > last ) return -1;
+		if( m == 1 ) return indexOf(bb, pattern[0], from, to);
+		
+		if( m < 4 || to - from < 256 ){
+			byte first = pattern[0];
+			for( int i = from; i <= last; i++){
+				if( (i = indexOf(bb, first, i, last + 1)) == -1 ) return -1;
+				if( Arrays.equals(bb, i + 1, i + m, pattern, 1, m) ) return i;
+			}
+			return -1;
+		}
+		
+		int[] skip = new int[256];
+		Arrays.fill(skip, m);
+		for( int j = 0; j < m - 1; j++)
+			skip[pattern[j] & 0xff] = m - 1 - j;
+		byte end = pattern[m - 1];
+		for( int i = from; i <= last; ){
+			byte c = bb[i + m - 1];
+			if( c == end && Arrays.equals(bb, i, i + m - 1, pattern, 0, m - 1) ) 
+				return i;
+			i += skip[c & 0xff];
 		}
 		return -1;
 	}
@@ -154,6 +552,7 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	 * delimiter.
 	 * @param delim
 	 * @return List of byte[]
+	 * @see ByteTokenizer to split without copying the fields
 	 */
 	public List<byte[]> split(byte delim){
 
@@ -272,6 +671,20 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 		return true;
 	}
 	
+	/**
+	 * Tests if <code>left</code> holds the same bytes as the <code>len</code> 
+	 * bytes of <code>right</code> starting at <code>off</code>.
+	 * @param left
+	 * @param right
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public static boolean equals(byte[] left, byte[] right, int off, int len){
+		if( left.length != len )return false;
+		return Arrays.equals(left, 0, len, right, off, off + len);
+	}
+	
 	public boolean equals(byte[] bb){
 		if( position != bb.length )return false;
 		for( int ii = 0; ii < position; ii++){
@@ -285,7 +698,12 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	public boolean equals(Object obj) {
 		if( obj instanceof ByteBuilder ){
 			ByteBuilder other = (ByteBuilder)obj;
-			return equals(other.b);
+			if( other.length() != position ) return false;
+			for( int ii = 0; ii < position; ii++){
+				if( other.byteAt(ii) != b[ii] )
+					return false;
+			}
+			return true;
 		}
 		if( obj instanceof byte[] ){
 			return equals((byte[]) obj);
@@ -306,10 +724,8 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 			position = idx;
 			return this;
 		}
-		for( ; (idx+len)<position ; idx++){
-			b[idx] = b[idx + len];
-		}
-		position = idx;
+		System.arraycopy(b, idx + len, b, idx, position - idx - len);
+		position -= len;
 		return this;
 	}
 	/**
@@ -360,6 +776,32 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 		return Arrays.copyOfRange(b, from, to);
 	}
 	
+	/**
+	 * Copies <code>len</code> bytes of this sequence starting at index 
+	 * <code>from</code> into <code>dst</code>.
+	 * @param from start index in this sequence
+	 * @param dst destination array
+	 * @param off index in dst to copy to
+	 * @param len number of bytes to copy
+	 * @throws IndexOutOfBoundsException if the range goes beyond the current length.
+	 */
+	public void copyTo(int from, byte[] dst, int off, int len){
+		if( from < 0 || len < 0 || from + len > position )
+			throw new IndexOutOfBoundsException("Attempt to copy ["+from+", "+(from+len)+") of length " + position);
+		System.arraycopy(b, from, dst, off, len);
+	}
+	/**
+	 * Copies <code>len</code> bytes of this sequence starting at index 
+	 * <code>from</code> into <code>dst</code> at absolute index <code>index</code>, 
+	 * leaving dst's position unchanged.
+	 * @throws IndexOutOfBoundsException if the range goes beyond the current length.
+	 */
+	public void copyTo(int from, ByteBuffer dst, int index, int len){
+		if( from < 0 || len < 0 || from + len > position )
+			throw new IndexOutOfBoundsException("Attempt to copy ["+from+", "+(from+len)+") of length " + position);
+		dst.put(index, b, from, len);
+	}
+	
 	private int hash;
 	@Override
 	public int hashCode() {
@@ -398,15 +840,32 @@ public class ByteBuilder implements Comparable<ByteBuilder>{
 	    return h;
 	}
 	
+	/**
+	 * Hash of the contents using the given hash function instead of hashCode()'s 31*h+b.
+	 * @param hasher e.g. {@link ByteHasher#xxHash64()}
+	 * @return
+	 */
+	public long hash64(ByteHasher hasher){
+		return hasher.hash64(b, 0, position);
+	}
+	/**
+	 * 32 bit version of {@link #hash64(ByteHasher)}
+	 */
+	public int hashCode(ByteHasher hasher){
+		return hasher.hash(b, 0, position);
+	}
+	
 	@Override
 	public int compareTo(ByteBuilder o) {
-		if( this.position < o.position ) return -1;
-		if( this.position > o.position ) return 1;
+		int olen = o.length();
+		if( this.position < olen ) return -1;
+		if( this.position > olen ) return 1;
 		
 		for( int ii = 0; ii < this.position; ii++){
-			if( this.b[ii] < o.b[ii] )
+			byte r = o.byteAt(ii);
+			if( this.b[ii] < r )
 				return -1;
-			else if ( this.b[ii] > o.b[ii] )
+			else if ( this.b[ii] > r )
 				return 1;
 		}
 		
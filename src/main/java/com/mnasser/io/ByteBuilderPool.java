@@ -0,0 +1,230 @@
+package com.mnasser.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable byte builders, so hot paths don't allocate a fresh backing 
+ * array (and regrow it) per request.
+ * <p>
+ * Builders are kept in power of two size classes from 256 bytes up to a maximum 
+ * capacity. {@link #acquire(int)} looks for one big enough first in a small 
+ * per thread cache, needing no synchronization, then in a bounded global queue 
+ * per size class, and only allocates when both are empty. A released builder is 
+ * cleared and filed under the largest class its capacity covers, builders grown 
+ * beyond the maximum are dropped for the GC.
+ * <p>
+ * The global tier holds at most globalDepth builders per class, each under twice 
+ * its class size. The thread local tier holds up to localDepth per class in every 
+ * thread that has used the pool, so its total grows with the number of threads and
+ * is only let go when a thread dies. Use a localDepth of 0 where many short lived 
+ * or pooled threads would each keep their own builders.
+ * <p>
+ * Thread safe. A builder may be released from a different thread than the one 
+ * that acquired it.
+ * @author mnasser
+ * @see PooledByteBuilder
+ */
+public class ByteBuilderPool {
+
+	static final int MIN_CAPACITY = 256;
+	private static final int MIN_SHIFT = 8;
+
+	private static final ByteBuilderPool DEFAULT = new ByteBuilderPool();
+
+	private final int maxCapacity;
+	private final int classes;
+	private final int localDepth;
+	private final ArrayBlockingQueue<PooledByteBuilder>[] global;
+	private final ThreadLocal<Local> local;
+
+	private final LongAdder localHits = new LongAdder();
+	private final LongAdder globalHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder globalRetained = new LongAdder();
+	private final LongAdder localRetained = new LongAdder();
+
+	/** Per thread stacks of builders, one per size class */
+	private final class Local {
+		final PooledByteBuilder[][] stacks = new PooledByteBuilder[classes][localDepth];
+		final int[] sizes = new int[classes];
+	}
+
+	/**
+	 * Pool of builders up to 1MB, keeping up to 4 per size class per thread 
+	 * and 64 per size class globally.
+	 */
+	public ByteBuilderPool() {
+		this(1 << 20, 4, 64);
+	}
+	/**
+	 * @param maxCapacity largest builder kept, rounded up to a power of two
+	 * @param localDepth builders kept per size class per thread, 0 for no thread local tier
+	 * @param globalDepth builders kept per size class in the shared tier
+	 */
+	@SuppressWarnings("unchecked")
+	public ByteBuilderPool(int maxCapacity, int localDepth, int globalDepth) {
+		if( maxCapacity < MIN_CAPACITY || maxCapacity > ByteKeyTable.MAX_CAPACITY )
+			throw new IllegalArgumentException("Max capacity must be between " + MIN_CAPACITY + " and " + ByteKeyTable.MAX_CAPACITY + " : " + maxCapacity);
+		if( localDepth < 0 || globalDepth < 1 )
+			throw new IllegalArgumentException("Invalid depths : " + localDepth + ", " + globalDepth);
+		this.maxCapacity = ByteKeyTable.tableSizeFor(maxCapacity);
+		this.classes = Integer.numberOfTrailingZeros(this.maxCapacity) - MIN_SHIFT + 1;
+		this.localDepth = localDepth;
+		this.global = (ArrayBlockingQueue<PooledByteBuilder>[]) new ArrayBlockingQueue<?>[classes];
+		for( int ii = 0; ii < classes; ii++)
+			global[ii] = new ArrayBlockingQueue<PooledByteBuilder>(globalDepth);
+		this.local = ( localDepth == 0 ) ? null : ThreadLocal.withInitial(Local::new);
+	}
+
+	/**
+	 * Pool shared by everything in this JVM.
+	 */
+	public static ByteBuilderPool getDefault(){
+		return DEFAULT;
+	}
+
+	/**
+	 * Empty builder with at least the default 256 bytes of capacity.
+	 */
+	public PooledByteBuilder acquire(){
+		return acquire(MIN_CAPACITY);
+	}
+	/**
+	 * Empty builder with at least minCapacity bytes of capacity. Hand it back with 
+	 * release() or close(). Builders larger than the pool's maximum capacity are 
+	 * always newly allocated.
+	 */
+	public PooledByteBuilder acquire(int minCapacity){
+		if( minCapacity > maxCapacity ){
+			misses.increment();
+			return new PooledByteBuilder(minCapacity, this);
+		}
+		int cls = ceilClass(minCapacity);
+		PooledByteBuilder bb = null;
+		boolean fromLocal = false;
+
+		if( local != null ){
+			Local l = local.get();
+			// any larger class will do, an idle bigger array beats allocating
+			for( int c = cls; c < classes && bb == null; c++ ){
+				if( l.sizes[c] > 0 ){
+					bb = l.stacks[c][--l.sizes[c]];
+					l.stacks[c][l.sizes[c]] = null;
+				}
+			}
+			if( bb != null ){
+				localHits.increment();
+				fromLocal = true;
+			}
+		}
+		if( bb == null ){
+			for( int c = cls; c < classes && bb == null; c++ )
+				bb = global[c].poll();
+			if( bb != null ) globalHits.increment();
+		}
+		if( bb == null ){
+			misses.increment();
+			return new PooledByteBuilder(MIN_CAPACITY << cls, this);
+		}
+		( fromLocal ? localRetained : globalRetained ).add(-bb.getCapacity());
+		bb.pooled.set(false);
+		return bb;
+	}
+
+	/**
+	 * Clears the builder and keeps it for reuse, unless it outgrew the maximum 
+	 * capacity or its size class is full. The builder must not be used afterwards.
+	 * @throws IllegalStateException if it was already released, by any thread
+	 */
+	public void release(PooledByteBuilder bb){
+		if( ! bb.pooled.compareAndSet(false, true) )
+			throw new IllegalStateException("Builder released twice");
+		bb.clear();
+		int capacity = bb.getCapacity();
+		if( capacity < MIN_CAPACITY || capacity >= 2L * maxCapacity ){
+			dropped.increment();
+			return;
+		}
+		int cls = floorClass(capacity);
+		if( local != null ){
+			Local l = local.get();
+			if( l.sizes[cls] < localDepth ){
+				l.stacks[cls][l.sizes[cls]++] = bb;
+				localRetained.add(capacity);
+				return;
+			}
+		}
+		if( global[cls].offer(bb) ){
+			globalRetained.add(capacity);
+		}else{
+			dropped.increment();
+		}
+	}
+
+	/** Smallest class whose builders hold at least capacity bytes */
+	private static int ceilClass(int capacity){
+		if( capacity <= MIN_CAPACITY ) return 0;
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+	}
+	/** Largest class whose size is at most capacity */
+	private static int floorClass(int capacity){
+		return 31 - Integer.numberOfLeadingZeros(capacity) - MIN_SHIFT;
+	}
+
+	/**
+	 * Acquires served from the calling thread's cache.
+	 */
+	public long localHits(){
+		return localHits.sum();
+	}
+	/**
+	 * Acquires served from the shared tier.
+	 */
+	public long globalHits(){
+		return globalHits.sum();
+	}
+	/**
+	 * Acquires that had to allocate a new builder.
+	 */
+	public long misses(){
+		return misses.sum();
+	}
+	/**
+	 * Releases that let the builder go because it was too big or its class was full.
+	 */
+	public long dropped(){
+		return dropped.sum();
+	}
+	/**
+	 * Fraction of acquires served by either tier, 1.0 if there were none.
+	 */
+	public double hitRate(){
+		long hits = localHits.sum() + globalHits.sum();
+		long total = hits + misses.sum();
+		return ( total == 0 ) ? 1.0 : (double) hits / total;
+	}
+	/**
+	 * Bytes of backing arrays currently held in the global tier.
+	 */
+	public long retainedBytes(){
+		return globalRetained.sum();
+	}
+	/**
+	 * Estimate of the bytes held in the thread local tier over all threads. Builders
+	 * cached by a thread that has since died are still counted, so this only drifts
+	 * upward as threads come and go.
+	 */
+	public long localRetainedBytesEstimate(){
+		return localRetained.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "ByteBuilderPool[localHits=" + localHits() + ", globalHits=" + globalHits()
+				+ ", misses=" + misses() + ", dropped=" + dropped()
+				+ ", hitRate=" + hitRate() + ", retainedBytes=" + retainedBytes() 
+				+ ", localRetainedBytesEstimate=" + localRetainedBytesEstimate() + "]";
+	}
+}
@@ -0,0 +1,87 @@
+package com.mnasser.io;
+
+import java.security.SecureRandom;
+
+/**
+ * Hash function over a range of bytes.
+ * <p>
+ * {@link ByteBuilder#hashCode(byte[], int, int)} is the String style
+ * <code>31*h + b</code>, one byte at a time. That is slow on long keys and
+ * clusters on keys that only differ in a few positions (hex ids, common prefixes).
+ * The hashers returned here consume 8 bytes per step and mix well enough for
+ * power of two tables to use the low bits directly.
+ * <p>
+ * A seeded hasher gives different hashes for the same keys, so whoever picks the
+ * keys can't force collisions without knowing the seed. Use {@link #seeded()}
+ * for tables filled from untrusted input.
+ * <p>
+ * Implementations are stateless and thread safe.
+ * @author mnasser
+ * @see ByteArrayMap#ByteArrayMap(int, ByteHasher)
+ */
+public interface ByteHasher {
+
+	/**
+	 * 64 bit hash of buf[off, off+len)
+	 */
+	long hash64(byte[] buf, int off, int len);
+
+	default long hash64(byte[] buf){
+		return hash64(buf, 0, buf.length);
+	}
+	/**
+	 * 32 bit hash of buf[off, off+len), the 64 bit hash folded in half.
+	 */
+	default int hash(byte[] buf, int off, int len){
+		long h = hash64(buf, off, len);
+		return (int)(h ^ (h >>> 32));
+	}
+	default int hash(byte[] buf){
+		return hash(buf, 0, buf.length);
+	}
+
+	/**
+	 * XXH64, same values as the reference implementation with seed 0.
+	 */
+	static ByteHasher xxHash64(){
+		return ByteHashers.XxHash64.UNSEEDED;
+	}
+	static ByteHasher xxHash64(long seed){
+		return new ByteHashers.XxHash64(seed);
+	}
+	/**
+	 * wyhash (version 3), the fastest of these on short keys.
+	 */
+	static ByteHasher wyHash(){
+		return ByteHashers.WyHash.UNSEEDED;
+	}
+	static ByteHasher wyHash(long seed){
+		return new ByteHashers.WyHash(seed);
+	}
+	/**
+	 * Lower 64 bits of MurmurHash3 x64 128, seed 0.
+	 */
+	static ByteHasher murmur3(){
+		return ByteHashers.Murmur3.UNSEEDED;
+	}
+	/**
+	 * @param seed the reference implementation takes a 32 bit seed, only seeds
+	 * from 0 to 2^32-1 reproduce its values.
+	 */
+	static ByteHasher murmur3(long seed){
+		return new ByteHashers.Murmur3(seed);
+	}
+	/**
+	 * xxHash64 with a random seed, against hash flooding. Hashes differ between
+	 * instances and runs, so don't persist them.
+	 */
+	static ByteHasher seeded(){
+		return xxHash64( new SecureRandom().nextLong() );
+	}
+	/**
+	 * The original <code>31*h + b</code> of {@link ByteBuilder#hashCode(byte[], int, int)}.
+	 */
+	static ByteHasher java(){
+		return ByteHashers.JAVA;
+	}
+}
@@ -0,0 +1,240 @@
+package com.mnasser.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The {@link ByteHasher} implementations. All read input as little endian so
+ * hashes are the same on every platform.
+ * @author mnasser
+ */
+final class ByteHashers {
+
+	private ByteHashers(){}
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	static long u64(byte[] b, int i){
+		return (long)LONGS.get(b, i);
+	}
+	static long u32(byte[] b, int i){
+		return (int)INTS.get(b, i) & 0xFFFFFFFFL;
+	}
+	static long u8(byte[] b, int i){
+		return b[i] & 0xFFL;
+	}
+
+	static final ByteHasher JAVA = new ByteHasher(){
+		@Override
+		public long hash64(byte[] buf, int off, int len) {
+			return ByteBuilder.hashCode(buf, off, len);
+		}
+		@Override
+		public int hash(byte[] buf, int off, int len) {
+			return ByteBuilder.hashCode(buf, off, len);
+		}
+	};
+
+	static final class XxHash64 implements ByteHasher {
+		static final XxHash64 UNSEEDED = new XxHash64(0);
+
+		private static final long P1 = 0x9E3779B185EBCA87L;
+		private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+		private static final long P3 = 0x165667B19E3779F9L;
+		private static final long P4 = 0x85EBCA77C2B2AE63L;
+		private static final long P5 = 0x27D4EB2F165667C5L;
+
+		private final long seed;
+
+		XxHash64(long seed){
+			this.seed = seed;
+		}
+
+		@Override
+		public long hash64(byte[] buf, int off, int len) {
+			int p = off, end = off + len;
+			long h;
+			if( len >= 32 ){
+				long v1 = seed + P1 + P2, v2 = seed + P2, v3 = seed, v4 = seed - P1;
+				int limit = end - 32;
+				do {
+					v1 = round(v1, u64(buf, p));
+					v2 = round(v2, u64(buf, p + 8));
+					v3 = round(v3, u64(buf, p + 16));
+					v4 = round(v4, u64(buf, p + 24));
+					p += 32;
+				} while( p <= limit );
+				h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+				h = merge(h, v1);
+				h = merge(h, v2);
+				h = merge(h, v3);
+				h = merge(h, v4);
+			}else{
+				h = seed + P5;
+			}
+			h += len;
+			for( ; p + 8 <= end; p += 8 ){
+				h ^= round(0, u64(buf, p));
+				h = Long.rotateLeft(h, 27) * P1 + P4;
+			}
+			if( p + 4 <= end ){
+				h ^= u32(buf, p) * P1;
+				h = Long.rotateLeft(h, 23) * P2 + P3;
+				p += 4;
+			}
+			for( ; p < end; p++ ){
+				h ^= u8(buf, p) * P5;
+				h = Long.rotateLeft(h, 11) * P1;
+			}
+			h ^= h >>> 33;
+			h *= P2;
+			h ^= h >>> 29;
+			h *= P3;
+			return h ^ (h >>> 32);
+		}
+		private static long round(long acc, long input){
+			return Long.rotateLeft(acc + input * P2, 31) * P1;
+		}
+		private static long merge(long acc, long v){
+			return (acc ^ round(0, v)) * P1 + P4;
+		}
+	}
+
+	static final class WyHash implements ByteHasher {
+		static final WyHash UNSEEDED = new WyHash(0);
+
+		private static final long P0 = 0xa0761d6478bd642fL;
+		private static final long P1 = 0xe7037ed1a0b428dbL;
+		private static final long P2 = 0x8ebc6af09c88c6e3L;
+		private static final long P3 = 0x589965cc75374cc3L;
+		private static final long P4 = 0x1d8e4e27c47d124fL;
+
+		private final long seed;
+
+		WyHash(long seed){
+			this.seed = seed;
+		}
+
+		/** 128 bit product of a and b, high half xor low half */
+		private static long mum(long a, long b){
+			long lo = a * b;
+			long hi = Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+			return hi ^ lo;
+		}
+		private static long r3(byte[] b, int p, int k){
+			return (u8(b, p) << 16) | (u8(b, p + (k >>> 1)) << 8) | u8(b, p + k - 1);
+		}
+		/** 8 bytes with the 4 byte halves swapped, as wyhash v3 reads them */
+		private static long r8s(byte[] b, int p){
+			return (u32(b, p) << 32) | u32(b, p + 4);
+		}
+
+		@Override
+		public long hash64(byte[] buf, int off, int len) {
+			long s = seed;
+			int p = off;
+			if( len == 0 )
+				return 0;
+			if( len < 4 )
+				return mum(mum(r3(buf, p, len) ^ s ^ P0, s ^ P1) ^ s, len ^ P4);
+			if( len <= 8 )
+				return mum(mum(u32(buf, p) ^ s ^ P0, u32(buf, p + len - 4) ^ s ^ P1) ^ s, len ^ P4);
+			if( len <= 16 )
+				return mum(mum(r8s(buf, p) ^ s ^ P0, r8s(buf, p + len - 8) ^ s ^ P1) ^ s, len ^ P4);
+			if( len <= 24 )
+				return mum(mum(r8s(buf, p) ^ s ^ P0, r8s(buf, p + 8) ^ s ^ P1)
+						^ mum(r8s(buf, p + len - 8) ^ s ^ P2, s ^ P3), len ^ P4);
+			if( len <= 32 )
+				return mum(mum(r8s(buf, p) ^ s ^ P0, r8s(buf, p + 8) ^ s ^ P1)
+						^ mum(r8s(buf, p + 16) ^ s ^ P2, r8s(buf, p + len - 8) ^ s ^ P3), len ^ P4);
+
+			long s1 = s;
+			int i = len;
+			for( ; i > 256; i -= 256, p += 256 ){
+				s = mum(u64(buf, p) ^ s ^ P0, u64(buf, p + 8) ^ s ^ P1) ^ mum(u64(buf, p + 16) ^ s ^ P2, u64(buf, p + 24) ^ s ^ P3);
+				s1 = mum(u64(buf, p + 32) ^ s1 ^ P1, u64(buf, p + 40) ^ s1 ^ P2) ^ mum(u64(buf, p + 48) ^ s1 ^ P3, u64(buf, p + 56) ^ s1 ^ P0);
+				s = mum(u64(buf, p + 64) ^ s ^ P0, u64(buf, p + 72) ^ s ^ P1) ^ mum(u64(buf, p + 80) ^ s ^ P2, u64(buf, p + 88) ^ s ^ P3);
+				s1 = mum(u64(buf, p + 96) ^ s1 ^ P1, u64(buf, p + 104) ^ s1 ^ P2) ^ mum(u64(buf, p + 112) ^ s1 ^ P3, u64(buf, p + 120) ^ s1 ^ P0);
+				s = mum(u64(buf, p + 128) ^ s ^ P0, u64(buf, p + 136) ^ s ^ P1) ^ mum(u64(buf, p + 144) ^ s ^ P2, u64(buf, p + 152) ^ s ^ P3);
+				s1 = mum(u64(buf, p + 160) ^ s1 ^ P1, u64(buf, p + 168) ^ s1 ^ P2) ^ mum(u64(buf, p + 176) ^ s1 ^ P3, u64(buf, p + 184) ^ s1 ^ P0);
+				s = mum(u64(buf, p + 192) ^ s ^ P0, u64(buf, p + 200) ^ s ^ P1) ^ mum(u64(buf, p + 208) ^ s ^ P2, u64(buf, p + 216) ^ s ^ P3);
+				s1 = mum(u64(buf, p + 224) ^ s1 ^ P1, u64(buf, p + 232) ^ s1 ^ P2) ^ mum(u64(buf, p + 240) ^ s1 ^ P3, u64(buf, p + 248) ^ s1 ^ P0);
+			}
+			for( ; i > 32; i -= 32, p += 32 ){
+				s = mum(u64(buf, p) ^ s ^ P0, u64(buf, p + 8) ^ s ^ P1);
+				s1 = mum(u64(buf, p + 16) ^ s1 ^ P2, u64(buf, p + 24) ^ s1 ^ P3);
+			}
+			if( i < 4 ){
+				s = mum(r3(buf, p, i) ^ s ^ P0, s ^ P1);
+			}else if( i <= 8 ){
+				s = mum(u32(buf, p) ^ s ^ P0, u32(buf, p + i - 4) ^ s ^ P1);
+			}else if( i <= 16 ){
+				s = mum(r8s(buf, p) ^ s ^ P0, r8s(buf, p + i - 8) ^ s ^ P1);
+			}else if( i <= 24 ){
+				s = mum(r8s(buf, p) ^ s ^ P0, r8s(buf, p + 8) ^ s ^ P1);
+				s1 = mum(r8s(buf, p + i - 8) ^ s1 ^ P2, s1 ^ P3);
+			}else{
+				s = mum(r8s(buf, p) ^ s ^ P0, r8s(buf, p + 8) ^ s ^ P1);
+				s1 = mum(r8s(buf, p + 16) ^ s1 ^ P2, r8s(buf, p + i - 8) ^ s1 ^ P3);
+			}
+			return mum(s ^ s1, len ^ P4);
+		}
+	}
+
+	static final class Murmur3 implements ByteHasher {
+		static final Murmur3 UNSEEDED = new Murmur3(0);
+
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		private final long seed;
+
+		Murmur3(long seed){
+			this.seed = seed;
+		}
+
+		@Override
+		public long hash64(byte[] buf, int off, int len) {
+			long h1 = seed, h2 = seed;
+			int p = off, end = off + len;
+			for( ; p + 16 <= end; p += 16 ){
+				h1 ^= mixK1(u64(buf, p));
+				h1 = (Long.rotateLeft(h1, 27) + h2) * 5 + 0x52dce729;
+				h2 ^= mixK2(u64(buf, p + 8));
+				h2 = (Long.rotateLeft(h2, 31) + h1) * 5 + 0x38495ab5;
+			}
+			int rem = end - p;
+			if( rem > 0 ){
+				long k1 = 0, k2 = 0;
+				for( int i = rem - 1; i >= 8; i-- )
+					k2 = (k2 << 8) | u8(buf, p + i);
+				for( int i = Math.min(rem, 8) - 1; i >= 0; i-- )
+					k1 = (k1 << 8) | u8(buf, p + i);
+				if( rem > 8 ) h2 ^= mixK2(k2);
+				h1 ^= mixK1(k1);
+			}
+			h1 ^= len;
+			h2 ^= len;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			return h1 + h2;
+		}
+		private static long mixK1(long k){
+			return Long.rotateLeft(k * C1, 31) * C2;
+		}
+		private static long mixK2(long k){
+			return Long.rotateLeft(k * C2, 33) * C1;
+		}
+		private static long fmix(long k){
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			return k ^ (k >>> 33);
+		}
+	}
+}
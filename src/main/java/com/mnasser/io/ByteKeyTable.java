@@ -0,0 +1,211 @@
+package com.mnasser.io;
+
+import java.util.List;
+
+/**
+ * The byte[] keyed open-addressing table behind {@link ByteArrayMap},
+ * {@link ByteArrayIntMap} and {@link ByteArrayLongMap}.
+ * <p>
+ * Keys and their hash codes are kept in flat parallel arrays probed linearly,
+ * the table doubles when the load factor is exceeded, and removal shifts later
+ * entries of the probe run back instead of leaving tombstones. Subclasses only
+ * keep the values, in a third array parallel to the keys, and move them when
+ * this class says so.
+ * <p>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ */
+abstract class ByteKeyTable {
+
+	static final int DEFAULT_CAPACITY = 128;
+	static final float DEFAULT_LOAD_FACTOR = 0.75f;
+	static final int MAX_CAPACITY = 1 << 30;
+
+	private final float loadFactor;
+	private final int initCapacity;
+	private final ByteHasher hasher; // null for the default hash
+
+	byte[][] keys;
+	int[] hashes;
+	int mask;
+	private int threshold;
+	int entries = 0;
+
+	/**
+	 * @param expectedSize number of entries the table should hold before it needs to grow.
+	 * @param loadFactor fraction of the table that may be filled before it is
+	 * doubled. Must be between 0 and 1 exclusive.
+	 * @param hasher hash function for the keys, null for the default.
+	 */
+	ByteKeyTable(int expectedSize, float loadFactor, ByteHasher hasher) {
+		if( loadFactor <= 0 || loadFactor >= 1 )
+			throw new IllegalArgumentException("Load factor must be between 0 and 1 : " + loadFactor);
+		if( expectedSize < 0 )
+			throw new IllegalArgumentException("Negative size : " + expectedSize);
+		this.loadFactor = loadFactor;
+		this.hasher = hasher;
+		this.initCapacity = tableSizeFor( (int)Math.ceil(expectedSize / loadFactor) );
+		allocate(initCapacity);
+	}
+
+	/**
+	 * Replaces the value array with an empty one of the given capacity. Called
+	 * from the constructor, so subclasses must not initialize the array field
+	 * where it is declared.
+	 * @return the previous value array, null the first time
+	 */
+	abstract Object newValues(int capacity);
+	/**
+	 * Copies the value at index from of the previous value array to index to.
+	 */
+	abstract void copyValue(Object oldValues, int from, int to);
+	/**
+	 * Moves the value at index from to index to.
+	 */
+	abstract void moveValue(int from, int to);
+	/**
+	 * Resets the value at index i, so a free slot holds no stale value or reference.
+	 */
+	abstract void clearValue(int i);
+
+	/**
+	 * Smallest power of two that is greater than or equal to the given capacity.
+	 */
+	static int tableSizeFor(int cap){
+		if( cap <= 2 ) return 2;
+		if( cap >= MAX_CAPACITY ) return MAX_CAPACITY;
+		return Integer.highestOneBit(cap - 1) << 1;
+	}
+
+	/**
+	 * Spreads the higher bits of the key's hash code downward since the
+	 * table index only uses the lower bits.
+	 */
+	static int hash(byte[] key){
+		return hash(key, 0, key.length);
+	}
+	static int hash(byte[] buf, int off, int len){
+		int h = ByteBuilder.hashCode(buf, off, len);
+		return h ^ (h >>> 16);
+	}
+	/**
+	 * Hash of a key as stored in this table.
+	 */
+	final int hashOf(byte[] buf, int off, int len){
+		return ( hasher == null ) ? hash(buf, off, len) : hasher.hash(buf, off, len);
+	}
+
+	/**
+	 * @return the previous value array
+	 */
+	private Object allocate(int capacity){
+		keys = new byte[capacity][];
+		hashes = new int[capacity];
+		mask = capacity - 1;
+		threshold = (capacity == MAX_CAPACITY) ? capacity - 1 : (int)(capacity * loadFactor);
+		return newValues(capacity);
+	}
+
+	/**
+	 * Doubles the table and re-inserts every entry using its stored hash code.
+	 */
+	private void resize(){
+		if( keys.length == MAX_CAPACITY )
+			throw new IllegalStateException(getClass().getSimpleName() + " is full : " + entries);
+		byte[][] oldKeys = keys;
+		int[] oldHashes = hashes;
+		Object oldVals = allocate(keys.length << 1);
+		for( int ii = 0, len = oldKeys.length; ii < len; ii++){
+			if( oldKeys[ii] == null ) continue;
+			int i = oldHashes[ii] & mask;
+			while( keys[i] != null )
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[ii];
+			hashes[i] = oldHashes[ii];
+			copyValue(oldVals, ii, i);
+		}
+	}
+
+	/**
+	 * Empties the table, shrinking it back to its initial capacity.
+	 */
+	void clearTable(){
+		allocate(initCapacity);
+		entries = 0;
+	}
+
+	/**
+	 * Returns the table index holding the key found in buf[off, off+len), -1 if absent.
+	 */
+	final int indexOf(byte[] buf, int off, int len, int h){
+		int i = h & mask;
+		byte[] k;
+		while( (k = keys[i]) != null ){
+			if( hashes[i] == h && ByteBuilder.equals(k, buf, off, len) )
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+	/**
+	 * Same as indexOf() but an absent key gives <code>-(slot) - 1</code> for
+	 * the free slot it would go in, see {@link #insert(int, byte[], int)}.
+	 */
+	final int probe(byte[] buf, int off, int len, int h){
+		int i = h & mask;
+		byte[] k;
+		while( (k = keys[i]) != null ){
+			if( hashes[i] == h && ByteBuilder.equals(k, buf, off, len) )
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -i - 1;
+	}
+	/**
+	 * Stores a new key in the free slot found by probe(), with a cleared value.
+	 * The key array is kept as is, pass a copy unless the caller owns it.
+	 * @return the key's index, which differs from slot if the table grew
+	 */
+	final int insert(int slot, byte[] key, int h){
+		keys[slot] = key;
+		hashes[slot] = h;
+		clearValue(slot);
+		if( ++entries > threshold ){
+			resize();
+			return indexOf(key, 0, key.length, h);
+		}
+		return slot;
+	}
+
+	/**
+	 * Empties slot i and shifts any following entries of the same probe run
+	 * back so no lookup ever stops short at the hole (no tombstones needed).
+	 */
+	final void removeAt(int i){
+		removeAt(i, null);
+	}
+	/**
+	 * Same as removeAt(i), also collecting into wrapped any key that moves from
+	 * the start of the table back past the end, i.e. from before slot i to after it.
+	 */
+	final void removeAt(int i, List<byte[]> wrapped){
+		entries--;
+		int j = i;
+		while( true ){
+			keys[i] = null;
+			clearValue(i);
+			int home;
+			do {
+				j = (j + 1) & mask;
+				if( keys[j] == null ) return;
+				home = hashes[j] & mask;
+				// entry at j stays put if its home slot lies cyclically in (i, j]
+			} while( (i <= j) ? (i < home && home <= j) : (i < home || home <= j) );
+			if( wrapped != null && j < i ) wrapped.add(keys[j]);
+			keys[i] = keys[j];
+			hashes[i] = hashes[j];
+			moveValue(j, i);
+			i = j;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.mnasser.io;
+
+import java.util.Arrays;
+
+/**
+ * Splits a range of bytes into fields around a delimiter without copying
+ * anything, a reusable replacement for {@link ByteBuilder#split(byte)}.
+ * <p>
+ * {@link #tokenize(byte[], int, int)} only records where each field starts and
+ * ends, in an int array that is kept and reused across calls, so splitting line
+ * after line allocates nothing once the array is big enough. Field N is then
+ * read in place, copied out, compared or parsed as a number.
+ * <p>
+ * Unlike split(), empty fields are kept, trailing ones included: n delimiters
+ * make n + 1 fields, as in TSV. With a max fields limit the last field holds
+ * the rest of the input, delimiters and all.
+ * <p>
+ * The fields point into the caller's buffer, which must not change while
+ * they are in use.
+ * <p>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ */
+public class ByteTokenizer {
+
+	private final byte[] delim;
+	private final int maxFields;
+
+	private byte[] buf;
+	private int[] bounds = new int[32]; // start and end of each field, interleaved
+	private int count = 0;
+
+	public ByteTokenizer(byte delim) {
+		this(new byte[]{ delim }, Integer.MAX_VALUE);
+	}
+	public ByteTokenizer(byte[] delim) {
+		this(delim, Integer.MAX_VALUE);
+	}
+	/**
+	 * @param delim sequence of bytes separating fields, e.g. "\t" or "::"
+	 * @param maxFields most fields to split into, the last one gets the rest
+	 */
+	public ByteTokenizer(byte[] delim, int maxFields) {
+		if( delim.length == 0 )
+			throw new IllegalArgumentException("Empty delimiter");
+		if( maxFields < 1 )
+			throw new IllegalArgumentException("Max fields must be positive : " + maxFields);
+		this.delim = Arrays.copyOf(delim, delim.length);
+		this.maxFields = maxFields;
+	}
+
+	/**
+	 * Splits bb[off, off+len) into fields, replacing those of the last call.
+	 * @return number of fields, at least 1
+	 */
+	public int tokenize(byte[] bb, int off, int len){
+		buf = bb;
+		count = 0;
+		int end = off + len, m = delim.length;
+		int from = off;
+		while( count < maxFields - 1 ){
+			int i = ( m == 1 ) ? ByteBuilder.indexOf(bb, delim[0], from, end)
+					: ByteBuilder.indexOf(bb, from, end, delim);
+			if( i == -1 ) break;
+			add(from, i);
+			from = i + m;
+		}
+		add(from, end);
+		return count;
+	}
+	public int tokenize(byte[] bb){
+		return tokenize(bb, 0, bb.length);
+	}
+	/**
+	 * Splits the builder's contents in place. A {@link RingByteBuilder} may
+	 * wrap around its backing store, so it is split from a copy of its contents.
+	 * @return number of fields, at least 1
+	 */
+	public int tokenize(ByteBuilder bb){
+		if( bb instanceof RingByteBuilder )
+			return tokenize(bb.getContent());
+		return tokenize(bb.b, 0, bb.position);
+	}
+
+	private void add(int start, int end){
+		if( 2 * count + 2 > bounds.length )
+			bounds = Arrays.copyOf(bounds, bounds.length * 2);
+		bounds[2 * count] = start;
+		bounds[2 * count + 1] = end;
+		count++;
+	}
+	private void check(int i){
+		if( i < 0 || i >= count )
+			throw new IndexOutOfBoundsException("No field " + i + ", there are " + count);
+	}
+
+	/**
+	 * Number of fields found by the last tokenize().
+	 */
+	public int fieldCount(){
+		return count;
+	}
+	/**
+	 * The buffer last tokenized, which the field offsets index into.
+	 */
+	public byte[] buffer(){
+		return buf;
+	}
+	/**
+	 * Index in {@link #buffer()} of the first byte of field i.
+	 */
+	public int start(int i){
+		check(i);
+		return bounds[2 * i];
+	}
+	/**
+	 * Index in {@link #buffer()} just past the last byte of field i.
+	 */
+	public int end(int i){
+		check(i);
+		return bounds[2 * i + 1];
+	}
+	public int length(int i){
+		check(i);
+		return bounds[2 * i + 1] - bounds[2 * i];
+	}
+	public boolean isEmpty(int i){
+		return length(i) == 0;
+	}
+
+	/**
+	 * Copy of field i.
+	 */
+	public byte[] field(int i){
+		check(i);
+		return Arrays.copyOfRange(buf, bounds[2 * i], bounds[2 * i + 1]);
+	}
+	/**
+	 * Copies field i into dst at off.
+	 * @return number of bytes copied
+	 */
+	public int copyField(int i, byte[] dst, int off){
+		int len = length(i);
+		System.arraycopy(buf, bounds[2 * i], dst, off, len);
+		return len;
+	}
+	/**
+	 * Appends field i to the builder.
+	 */
+	public ByteBuilder appendField(int i, ByteBuilder bb){
+		return bb.append(buf, start(i), length(i));
+	}
+	/**
+	 * Whether field i holds exactly the given bytes.
+	 */
+	public boolean equals(int i, byte[] bb){
+		check(i);
+		return Arrays.equals(buf, bounds[2 * i], bounds[2 * i + 1], bb, 0, bb.length);
+	}
+	/**
+	 * Whether field i holds exactly the given ASCII string.
+	 */
+	public boolean asciiEquals(int i, String s){
+		int start = start(i);
+		if( length(i) != s.length() ) return false;
+		for( int ii = 0, len = s.length(); ii < len; ii++){
+			if( buf[start + ii] != (byte)s.charAt(ii) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @see ByteBuilder#parseInt(byte[], int, int)
+	 */
+	public int parseInt(int i){
+		return ByteBuilder.parseInt(buf, start(i), length(i));
+	}
+	/**
+	 * @see ByteBuilder#parseLong(byte[], int, int)
+	 */
+	public long parseLong(int i){
+		return ByteBuilder.parseLong(buf, start(i), length(i));
+	}
+	/**
+	 * @see ByteBuilder#parseDouble(byte[], int, int)
+	 */
+	public double parseDouble(int i){
+		return ByteBuilder.parseDouble(buf, start(i), length(i));
+	}
+
+	/**
+	 * Field i as a String, for debugging and the odd field that is needed as one.
+	 */
+	public String toString(int i){
+		return new String(buf, start(i), length(i));
+	}
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for( int ii = 0; ii < count; ii++){
+			if( ii > 0 ) sb.append(", ");
+			sb.append(toString(ii));
+		}
+		return sb.append(']').toString();
+	}
+}
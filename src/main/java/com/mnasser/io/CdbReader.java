@@ -0,0 +1,190 @@
+package com.mnasser.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only lookups into a constant database built by {@link CdbWriter} or 
+ * <code>cdbmake</code>.
+ * <p>
+ * The file is memory mapped and the 2KB header is copied onto the heap when 
+ * opened, so a lookup costs one random read into a hash table slot and one into
+ * the record. Values are returned as read only views of the mapping without 
+ * copying. Since the file is only ever mapped read only, any number of readers
+ * and JVMs share the same page cached copy.
+ * <p>
+ * Safe to use from multiple threads once opened.
+ * @author mnasser
+ * @see CdbWriter
+ */
+public class CdbReader implements Closeable {
+
+	// files up to 4GB are mapped as a series of windows since a single mapping is limited to 2GB
+	private static final int WINDOW_BITS = 30;
+	private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] windows;
+	private final long length;
+	private final long[] tablePos = new long[CdbWriter.TABLES];
+	private final int[] tableSlots = new int[CdbWriter.TABLES];
+	private final int records;
+	
+	public CdbReader(File cdb) throws IOException {
+		file = new RandomAccessFile(cdb, "r");
+		try {
+			FileChannel ch = file.getChannel();
+			length = ch.size();
+			if( length < CdbWriter.HEADER_SIZE || length > CdbWriter.MAX_FILE_SIZE )
+				throw new IOException("Not a cdb file : " + cdb + " (" + length + " bytes)");
+			
+			int n = (int)((length + WINDOW_SIZE - 1) >>> WINDOW_BITS);
+			windows = new MappedByteBuffer[n];
+			for( int ii = 0; ii < n; ii++){
+				long start = (long)ii << WINDOW_BITS;
+				windows[ii] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+				windows[ii].order(ByteOrder.LITTLE_ENDIAN);
+			}
+			
+			long slots = 0;
+			for( int t = 0; t < CdbWriter.TABLES; t++){
+				tablePos[t] = readInt(t * 8L) & 0xFFFFFFFFL;
+				tableSlots[t] = readInt(t * 8L + 4);
+				if( tableSlots[t] < 0 || tablePos[t] + tableSlots[t] * 8L > length )
+					throw new IOException("Corrupt cdb header : " + cdb);
+				slots += tableSlots[t];
+			}
+			records = (int)(slots / 2);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	private int readInt(long p){
+		int w = (int)(p >>> WINDOW_BITS);
+		int off = (int)(p & WINDOW_MASK);
+		if( off <= WINDOW_SIZE - 4 ) 
+			return windows[w].getInt(off);
+		// straddles two windows
+		return (byteAt(p) & 0xff) | (byteAt(p + 1) & 0xff) << 8 
+				| (byteAt(p + 2) & 0xff) << 16 | (byteAt(p + 3) & 0xff) << 24;
+	}
+	
+	private byte byteAt(long p){
+		return windows[(int)(p >>> WINDOW_BITS)].get((int)(p & WINDOW_MASK));
+	}
+	
+	/**
+	 * Position of the record's data if the record at rpos holds this key, -1 otherwise.
+	 */
+	private long match(long rpos, byte[] key){
+		if( readInt(rpos) != key.length ) return -1;
+		long k = rpos + 8;
+		int w = (int)(k >>> WINDOW_BITS);
+		int off = (int)(k & WINDOW_MASK);
+		if( off + key.length <= WINDOW_SIZE ){
+			MappedByteBuffer win = windows[w];
+			for( int ii = 0, len = key.length; ii < len; ii++){
+				if( win.get(off + ii) != key[ii] ) return -1;
+			}
+		}else{
+			for( int ii = 0, len = key.length; ii < len; ii++){
+				if( byteAt(k + ii) != key[ii] ) return -1;
+			}
+		}
+		return k + key.length;
+	}
+	
+	/**
+	 * Finds the position of the first record with this key, -1 if absent.
+	 */
+	private long find(byte[] key){
+		int h = CdbWriter.hash(key);
+		int t = h & 0xff;
+		int slots = tableSlots[t];
+		if( slots == 0 ) return -1;
+		long tpos = tablePos[t];
+		int s = Integer.remainderUnsigned(h >>> 8, slots);
+		for( int ii = 0; ii < slots; ii++){
+			long spos = tpos + s * 8L;
+			long rpos = readInt(spos + 4) & 0xFFFFFFFFL;
+			if( rpos == 0 ) return -1;
+			if( readInt(spos) == h && match(rpos, key) != -1 ) 
+				return rpos;
+			s = (s + 1 == slots) ? 0 : s + 1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the value stored at this key as a read only view of the mapped file,
+	 * positioned at 0 with the value's length as its limit. Null if absent.
+	 * <p>
+	 * Values that straddle two mapping windows (only possible in files over 1GB) 
+	 * are copied into a heap buffer instead.
+	 * @param key
+	 * @return
+	 */
+	public ByteBuffer get(byte[] key){
+		long rpos = find(key);
+		if( rpos == -1 ) return null;
+		int dlen = readInt(rpos + 4);
+		long d = rpos + 8 + key.length;
+		int w = (int)(d >>> WINDOW_BITS);
+		int off = (int)(d & WINDOW_MASK);
+		if( off + (long)dlen <= WINDOW_SIZE )
+			return windows[w].slice(off, dlen).asReadOnlyBuffer();
+		
+		byte[] v = new byte[dlen];
+		for( int ii = 0; ii < dlen; ii++) 
+			v[ii] = byteAt(d + ii);
+		return ByteBuffer.wrap(v).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Returns a copy of the value stored at this key. Null if absent.
+	 * @param key
+	 * @return
+	 */
+	public byte[] getBytes(byte[] key){
+		ByteBuffer v = get(key);
+		if( v == null ) return null;
+		byte[] res = new byte[v.remaining()];
+		v.get(res);
+		return res;
+	}
+	
+	/**
+	 * Determines if a key is present 
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(byte[] key){
+		return find(key) != -1;
+	}
+	
+	/**
+	 * Number of records in the database.
+	 * @return
+	 */
+	public int size(){
+		return records;
+	}
+	
+	/**
+	 * Closes the underlying file. The mapping itself, and any value views 
+	 * handed out, remain valid until garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
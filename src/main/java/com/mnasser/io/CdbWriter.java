@@ -0,0 +1,284 @@
+package com.mnasser.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Builds a constant database file readable by {@link CdbReader}, in the same 
+ * on-disk format as D. J. Bernstein's <code>cdbmake</code>. Files built here can
+ * be read by the <code>cdb</code> command line tools and vice versa.
+ * <p>
+ * Records are streamed straight to disk. Only an 8 byte (hash, position) pair per 
+ * record is kept in memory until {@link #close()} writes the hash tables and header.
+ * The data is written to a temporary file next to the target which is then renamed
+ * over it, so readers never see a half built database. Once an add has failed the
+ * writer is unusable and close() deletes the temporary file, leaving the target as
+ * it was.
+ * <p>
+ * File layout, all integers unsigned 32 bit little endian:
+ * <pre>
+ *   header   256 x [table position][table slots]
+ *   records  [key length][data length][key][data] ...
+ *   tables   256 x slots x [hash][record position]   (empty slot has position 0)
+ * </pre>
+ * <strong>NOT THREAD SAFE.</strong>
+ * @author mnasser
+ */
+public class CdbWriter implements Closeable {
+
+	static final int TABLES = 256;
+	static final int HEADER_SIZE = TABLES * 8;
+	static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+	
+	private final File target;
+	private final File temp;
+	private final FileOutputStream fos;
+	private final BufferedOutputStream out;
+	private final byte[] intBuf = new byte[4];
+	private long pos = HEADER_SIZE;
+	private boolean closed = false;
+	private boolean failed = false;
+	
+	// (hash, position) of every record written
+	private int[] hashes = new int[1024];
+	private int[] positions = new int[1024];
+	private int records = 0;
+	
+	public CdbWriter(File cdb) throws IOException {
+		target = cdb;
+		temp = new File(cdb.getAbsoluteFile().getParentFile(), cdb.getName() + ".tmp");
+		fos = new FileOutputStream(temp);
+		out = new BufferedOutputStream(fos, 64 * 1024);
+		out.write(new byte[HEADER_SIZE]); // filled in on close
+	}
+	
+	/**
+	 * The cdb hash function: h = ((h << 5) + h) ^ c starting from 5381.
+	 */
+	static int hash(byte[] key){
+		return hash(key, 0, key.length);
+	}
+	static int hash(byte[] key, int off, int len){
+		int h = 5381;
+		for( int ii = off, end = off + len; ii < end; ii++){
+			h = ((h << 5) + h) ^ (key[ii] & 0xff);
+		}
+		return h;
+	}
+	
+	private void writeInt(int v) throws IOException {
+		intBuf[0] = (byte)v;
+		intBuf[1] = (byte)(v >>> 8);
+		intBuf[2] = (byte)(v >>> 16);
+		intBuf[3] = (byte)(v >>> 24);
+		out.write(intBuf, 0, 4);
+	}
+	
+	private void advance(long n) throws IOException {
+		pos += n;
+		if( pos > MAX_FILE_SIZE )
+			throw new IOException("cdb file would exceed 4GB : " + temp);
+	}
+	
+	/**
+	 * Adds a record. Duplicate keys are kept, lookups return the first one added.
+	 * @param key
+	 * @param value
+	 * @throws IOException
+	 */
+	public void add(byte[] key, byte[] value) throws IOException {
+		add(key, 0, key.length, value, 0, value.length);
+	}
+	
+	/**
+	 * Adds a record made of the given ranges of the two arrays.
+	 * @throws IOException
+	 */
+	public void add(byte[] key, int koff, int klen, byte[] value, int voff, int vlen) throws IOException {
+		if( closed ) throw new IOException("Writer already closed");
+		if( failed ) throw new IOException("Writer failed earlier : " + temp);
+		long at = pos;
+		int h;
+		try {
+			advance(8L + klen + vlen);
+			h = hash(key, koff, klen);
+			writeInt(klen);
+			writeInt(vlen);
+			out.write(key, koff, klen);
+			out.write(value, voff, vlen);
+		} catch( IOException | RuntimeException e ){
+			failed = true;
+			throw e;
+		}
+		
+		if( records == hashes.length ){
+			int n = ByteBuilder.getNextCapacitySize(records);
+			hashes = Arrays.copyOf(hashes, n);
+			positions = Arrays.copyOf(positions, n);
+		}
+		hashes[records] = h;
+		positions[records] = (int)at;
+		records++;
+	}
+	
+	/**
+	 * Adds every record from input in <code>cdbmake</code> format, which is also 
+	 * what <code>cdb -d</code> dumps:
+	 * <pre>  +klen,dlen:key-&gt;data\n</pre>
+	 * Stops at the terminating empty line or end of stream.
+	 * @param in
+	 * @return number of records added
+	 * @throws IOException on malformed input
+	 */
+	public int addAll(ByteArrayReader in) throws IOException {
+		int added = 0;
+		int c;
+		try {
+			while( (c = in.read()) != -1 ){
+				if( c == '\n' ) break; // end of dump
+				if( c != '+' ) throw new IOException("Bad cdb dump: expected '+' at record " + added + " got " + (char)c);
+				int klen = readNumber(in, ',');
+				int dlen = readNumber(in, ':');
+				byte[] key = in.read(klen);
+				expect(in, '-');
+				expect(in, '>');
+				byte[] data = in.read(dlen);
+				expect(in, '\n');
+				add(key, data);
+				added++;
+			}
+		} catch( IOException | RuntimeException e ){
+			failed = true;
+			throw e;
+		}
+		return added;
+	}
+	
+	/**
+	 * Adds one record per line of input. The key is everything before the first
+	 * delimiter and the value everything after it. Lines without the delimiter 
+	 * are stored with an empty value.
+	 * @param in
+	 * @param delim
+	 * @return number of records added
+	 * @throws IOException
+	 */
+	public int addAll(ByteArrayReader in, byte delim) throws IOException {
+		int added = 0;
+		byte[] line;
+		try {
+			while( (line = in.readLine()) != null ){
+				int d = 0;
+				while( d < line.length && line[d] != delim ) d++;
+				if( d == line.length ) add(line, 0, d, line, d, 0);
+				else add(line, 0, d, line, d + 1, line.length - d - 1);
+				added++;
+			}
+		} catch( IOException | RuntimeException e ){
+			failed = true;
+			throw e;
+		}
+		return added;
+	}
+	
+	private static int readNumber(ByteArrayReader in, char end) throws IOException {
+		long n = 0;
+		int c, digits = 0;
+		while( (c = in.read()) != end ){
+			if( c < '0' || c > '9' || ++digits > 10 ) 
+				throw new IOException("Bad cdb dump: unexpected '" + (char)c + "' in length");
+			n = n * 10 + (c - '0');
+		}
+		if( digits == 0 || n > Integer.MAX_VALUE ) 
+			throw new IOException("Bad cdb dump: invalid length");
+		return (int)n;
+	}
+	
+	private static void expect(ByteArrayReader in, char e) throws IOException {
+		int c = in.read();
+		if( c != e ) throw new IOException("Bad cdb dump: expected '" + e + "' got " + c);
+	}
+	
+	/**
+	 * Number of records added so far.
+	 * @return
+	 */
+	public int size(){
+		return records;
+	}
+	
+	/**
+	 * Writes the hash tables and header, then moves the finished file into place.
+	 * If an add failed, or writing the tables does, the temporary file is deleted 
+	 * instead and the target is left untouched.
+	 */
+	@Override
+	public void close() throws IOException {
+		if( closed ) return;
+		closed = true;
+		boolean moved = false;
+		try {
+			try {
+				if( ! failed ) writeTables();
+			} finally {
+				out.close();
+			}
+			if( failed ) return;
+			Files.move(temp.toPath(), target.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if( ! moved ) temp.delete();
+		}
+	}
+	
+	private void writeTables() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		
+		// group records by table, keeping insertion order within each
+		int[] start = new int[TABLES + 1];
+		for( int ii = 0; ii < records; ii++) 
+			start[ (hashes[ii] & 0xff) + 1 ]++;
+		for( int t = 0; t < TABLES; t++) 
+			start[t + 1] += start[t];
+		int[] order = new int[records];
+		int[] next = Arrays.copyOf(start, TABLES);
+		for( int ii = 0; ii < records; ii++) 
+			order[ next[hashes[ii] & 0xff]++ ] = ii;
+		
+		int[] table = new int[0];
+		for( int t = 0; t < TABLES; t++){
+			int count = start[t + 1] - start[t];
+			int slots = count * 2;
+			header.putInt((int)pos).putInt(slots);
+			if( slots == 0 ) continue;
+			
+			if( table.length < slots * 2 ) table = new int[slots * 2];
+			else Arrays.fill(table, 0, slots * 2, 0);
+			for( int ii = start[t]; ii < start[t + 1]; ii++){
+				int r = order[ii];
+				int s = Integer.remainderUnsigned(hashes[r] >>> 8, slots);
+				while( table[s * 2 + 1] != 0 ) 
+					s = (s + 1 == slots) ? 0 : s + 1;
+				table[s * 2] = hashes[r];
+				table[s * 2 + 1] = positions[r];
+			}
+			advance(slots * 8L);
+			for( int ii = 0; ii < slots * 2; ii++) 
+				writeInt(table[ii]);
+		}
+		out.flush();
+		header.flip();
+		while( header.hasRemaining() )
+			fos.getChannel().write(header, header.position());
+		fos.getChannel().force(false);
+	}
+}
@@ -0,0 +1,360 @@
+package com.mnasser.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Modifiable sequence of bytes like {@link ByteBuilder}, for payloads too big
+ * to keep in one array.
+ * <p>
+ * Bytes go into a list of fixed size chunks. Growing adds a chunk, nothing
+ * already appended is ever copied again, and the length is a long so there is
+ * no 2GB limit. Indexes are longs throughout.
+ * <p>
+ * Searches run chunk by chunk with ByteBuilder's static searches and find
+ * matches that straddle two chunks. {@link #writeTo(GatheringByteChannel)}
+ * writes all the chunks with gathering writes, without joining them first.
+ * <p>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ */
+public class ChunkedByteBuilder {
+
+	/** Default chunk size, 64K */
+	static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+	/** Largest chunk size, 1G */
+	static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	private final List<byte[]> chunks = new ArrayList<byte[]>();
+	private final int shift;
+	private final int mask;
+	private long length = 0;
+
+	public ChunkedByteBuilder() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+	/**
+	 * @param chunkSize size of each chunk, rounded up to a power of two
+	 */
+	public ChunkedByteBuilder(int chunkSize) {
+		if( chunkSize <= 0 )
+			throw new IllegalArgumentException("Chunk size must be positive : " + chunkSize);
+		int size = ( chunkSize >= MAX_CHUNK_SIZE ) ? MAX_CHUNK_SIZE : ByteKeyTable.tableSizeFor(chunkSize);
+		shift = Integer.numberOfTrailingZeros(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Chunk to write the next byte into, adding one if the last is full.
+	 */
+	private byte[] tail(){
+		int ci = (int)(length >>> shift);
+		if( ci == chunks.size() )
+			chunks.add(new byte[mask + 1]);
+		return chunks.get(ci);
+	}
+	/**
+	 * Number of bytes used in chunk ci.
+	 */
+	private int used(int ci){
+		long base = (long)ci << shift;
+		return (int)Math.max(0, Math.min(mask + 1, length - base));
+	}
+
+	public ChunkedByteBuilder append(byte bite){
+		tail()[(int)length & mask] = bite;
+		length++;
+		return this;
+	}
+	public ChunkedByteBuilder append(byte[] bb){
+		return append(bb, 0, bb.length);
+	}
+	public ChunkedByteBuilder append(byte[] bb, int length){
+		return append(bb, 0, length);
+	}
+	/**
+	 * Appends len bytes of bb starting at off, filling the last chunk before
+	 * starting a new one.
+	 */
+	public ChunkedByteBuilder append(byte[] bb, int off, int len){
+		while( len > 0 ){
+			int at = (int)length & mask;
+			int n = Math.min(len, mask + 1 - at);
+			System.arraycopy(bb, off, tail(), at, n);
+			length += n;
+			off += n;
+			len -= n;
+		}
+		return this;
+	}
+	/**
+	 * Appends all the remaining bytes of the buffer, advancing its position to its limit.
+	 */
+	public ChunkedByteBuilder append(ByteBuffer buf){
+		while( buf.hasRemaining() ){
+			int at = (int)length & mask;
+			int n = Math.min(buf.remaining(), mask + 1 - at);
+			buf.get(tail(), at, n);
+			length += n;
+		}
+		return this;
+	}
+	public ChunkedByteBuilder append(ByteBuilder bb){
+		int from = 0, len = bb.length();
+		while( len > 0 ){
+			int at = (int)length & mask;
+			int n = Math.min(len, mask + 1 - at);
+			bb.copyTo(from, tail(), at, n);
+			length += n;
+			from += n;
+			len -= n;
+		}
+		return this;
+	}
+
+	public byte byteAt(long i){
+		if( i < 0 || i >= length ) throw new IndexOutOfBoundsException("Trying to get an index ("+i+") outside length : " + length);
+		return chunks.get((int)(i >>> shift))[(int)i & mask];
+	}
+	public void setByteAt(long i, byte bite){
+		if( i < 0 || i >= length ) throw new IndexOutOfBoundsException("Trying to set an index ("+i+") outside length : " + length);
+		chunks.get((int)(i >>> shift))[(int)i & mask] = bite;
+	}
+
+	public long indexOf(byte bite){
+		return indexOf(bite, 0);
+	}
+	/**
+	 * Returns index of the first occurance of the byte starting from the given
+	 * index inclusive, -1 if none.
+	 */
+	public long indexOf(byte bite, long start){
+		start = Math.max(start, 0);
+		for( int ci = (int)(start >>> shift), off = (int)start & mask; start < length; ci++, off = 0){
+			int i = ByteBuilder.indexOf(chunks.get(ci), bite, off, used(ci));
+			if( i != -1 ) return ((long)ci << shift) + i;
+			start = (long)(ci + 1) << shift;
+		}
+		return -1;
+	}
+
+	public long indexOfAny(byte... bites){
+		return indexOfAny(bites, 0);
+	}
+	/**
+	 * Returns index of the first occurance of any of the given bytes starting
+	 * from the given index inclusive, -1 if none.
+	 */
+	public long indexOfAny(byte[] bites, long start){
+		start = Math.max(start, 0);
+		for( int ci = (int)(start >>> shift), off = (int)start & mask; start < length; ci++, off = 0){
+			int i = ByteBuilder.indexOfAny(chunks.get(ci), off, used(ci), bites);
+			if( i != -1 ) return ((long)ci << shift) + i;
+			start = (long)(ci + 1) << shift;
+		}
+		return -1;
+	}
+
+	public long indexOf(byte[] pattern){
+		return indexOf(pattern, 0);
+	}
+	/**
+	 * Returns index of the first occurance of the given sequence of bytes
+	 * starting from the given index inclusive, -1 if none. Each chunk is
+	 * searched on its own, then the few places a match could start in one
+	 * chunk and end in the next are checked.
+	 */
+	public long indexOf(byte[] pattern, long start){
+		int m = pattern.length;
+		long last = length - m;
+		start = Math.max(start, 0);
+		if( m == 0 ) return ( start <= length ) ? start : -1;
+		for( int ci = (int)(start >>> shift), off = (int)start & mask; start <= last; ci++, off = 0){
+			byte[] chunk = chunks.get(ci);
+			long base = (long)ci << shift;
+			int used = used(ci);
+			int i = ByteBuilder.indexOf(chunk, off, used, pattern);
+			if( i != -1 ) return base + i;
+			for( int j = Math.max(off, used - m + 1); j < used && base + j <= last; j++){
+				if( chunk[j] == pattern[0] && regionMatches(base + j, pattern) ) return base + j;
+			}
+			start = base + used;
+		}
+		return -1;
+	}
+	/**
+	 * Whether pattern is found at index i, which must leave room for all of it.
+	 */
+	private boolean regionMatches(long i, byte[] pattern){
+		int ci = (int)(i >>> shift), at = (int)i & mask;
+		byte[] chunk = chunks.get(ci);
+		for( int j = 0; j < pattern.length; j++, at++){
+			if( at > mask ){
+				chunk = chunks.get(++ci);
+				at = 0;
+			}
+			if( chunk[at] != pattern[j] ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Receives the contents of a builder as a run of byte array ranges.
+	 * @see ChunkedByteBuilder#forEachChunk(ChunkHandler)
+	 */
+	public interface ChunkHandler {
+		/**
+		 * Called once per chunk, in order.
+		 * @param buf the chunk itself, not a copy
+		 * @param off index of the first byte in range
+		 * @param len number of bytes in range
+		 * @return true to keep going, false to stop after this chunk
+		 * @throws IOException
+		 */
+		boolean onChunk(byte[] buf, int off, int len) throws IOException;
+	}
+	/**
+	 * Hands every chunk's used range to the handler in order, without copying.
+	 * @return false if the handler stopped early
+	 * @throws IOException
+	 */
+	public boolean forEachChunk(ChunkHandler handler) throws IOException {
+		return forEachChunk(0, length, handler);
+	}
+	/**
+	 * Hands the range [from, to) to the handler one chunk's worth at a time.
+	 * @return false if the handler stopped early
+	 * @throws IOException
+	 */
+	public boolean forEachChunk(long from, long to, ChunkHandler handler) throws IOException {
+		checkRange(from, to);
+		while( from < to ){
+			int ci = (int)(from >>> shift), off = (int)from & mask;
+			int n = (int)Math.min(mask + 1 - off, to - from);
+			if( ! handler.onChunk(chunks.get(ci), off, n) ) return false;
+			from += n;
+		}
+		return true;
+	}
+
+	private void checkRange(long from, long to){
+		if( from < 0 || from > to || to > length )
+			throw new IndexOutOfBoundsException("Attempt to access ["+from+", "+to+") of length " + length);
+	}
+
+	/**
+	 * Deletes everything from the given index on. Chunks no longer used are
+	 * dropped.
+	 */
+	public ChunkedByteBuilder truncate(long i){
+		if( i < 0 ) throw new IndexOutOfBoundsException("Negative index : " + i);
+		if( i < length ){
+			length = i;
+			int keep = (int)((length + mask) >>> shift);
+			chunks.subList(keep, chunks.size()).clear();
+		}
+		return this;
+	}
+	/**
+	 * Empties the builder, keeping only the first chunk for reuse.
+	 */
+	public void clear(){
+		length = 0;
+		if( chunks.size() > 1 )
+			chunks.subList(1, chunks.size()).clear();
+	}
+
+	/**
+	 * Copies <code>len</code> bytes starting at index <code>from</code> into
+	 * <code>dst</code>.
+	 * @throws IndexOutOfBoundsException if the range goes beyond the current length.
+	 */
+	public void copyTo(long from, byte[] dst, int off, int len){
+		checkRange(from, from + len);
+		while( len > 0 ){
+			int ci = (int)(from >>> shift), at = (int)from & mask;
+			int n = Math.min(len, mask + 1 - at);
+			System.arraycopy(chunks.get(ci), at, dst, off, n);
+			from += n;
+			off += n;
+			len -= n;
+		}
+	}
+	/**
+	 * Returns a copy of the range [from, to), which must fit in an array.
+	 */
+	public byte[] subSequence(long from, long to){
+		checkRange(from, to);
+		if( to - from > Integer.MAX_VALUE - 8 )
+			throw new IllegalStateException("Range too large for a byte[] : " + (to - from));
+		byte[] res = new byte[(int)(to - from)];
+		copyTo(from, res, 0, res.length);
+		return res;
+	}
+	/**
+	 * Gets a copy of the whole contents, which must fit in an array.
+	 */
+	public byte[] getContent(){
+		return subSequence(0, length);
+	}
+
+	/**
+	 * Wraps the used part of every chunk, sharing this builder's memory.
+	 * Only valid until the builder is next changed.
+	 */
+	public ByteBuffer[] asByteBuffers(){
+		int n = (int)((length + mask) >>> shift);
+		ByteBuffer[] bufs = new ByteBuffer[n];
+		for( int ci = 0; ci < n; ci++)
+			bufs[ci] = ByteBuffer.wrap(chunks.get(ci), 0, used(ci));
+		return bufs;
+	}
+	/**
+	 * Writes the whole contents with gathering writes, many chunks per call.
+	 * Keeps writing until everything is written, so a non blocking channel
+	 * should be given only when it can take it.
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	public long writeTo(GatheringByteChannel ch) throws IOException {
+		ByteBuffer[] bufs = asByteBuffers();
+		long written = 0;
+		int first = 0;
+		while( written < length ){
+			written += ch.write(bufs, first, bufs.length - first);
+			while( first < bufs.length && ! bufs[first].hasRemaining() )
+				first++;
+		}
+		return written;
+	}
+	/**
+	 * Writes the whole contents to the stream one chunk at a time.
+	 * @throws IOException
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		forEachChunk( (buf, off, len) -> {
+			out.write(buf, off, len);
+			return true;
+		});
+	}
+
+	public long length(){
+		return length;
+	}
+	public boolean isEmpty(){
+		return length == 0;
+	}
+	public int getChunkSize(){
+		return mask + 1;
+	}
+	/**
+	 * Number of chunks allocated, some may be empty.
+	 */
+	public int getChunkCount(){
+		return chunks.size();
+	}
+}
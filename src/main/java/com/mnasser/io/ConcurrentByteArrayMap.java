@@ -0,0 +1,495 @@
+package com.mnasser.io;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Thread safe hash map lookup where byte[] are keys, compared by content just 
+ * like {@link ByteArrayMap}.
+ * <p>
+ * The table is split into lock-striped segments, each a chained hash table
+ * guarded by its own lock. Writers only ever lock the one segment their key 
+ * hashes to, while reads never lock at all: bucket heads, chain links and values 
+ * are all volatile so a reader sees every write that completed before it started.
+ * <p>
+ * The <code>compute</code> family of methods run their function while holding the 
+ * segment lock, so the function should be short and must not update this map.
+ * <p>
+ * Null keys and values are not allowed. Iterators are weakly consistent.
+ * @author mnasser
+ * @see ByteArrayMap
+ */
+public class ConcurrentByteArrayMap<V> extends AbstractMap<byte[], V> implements ConcurrentMap<byte[], V> {
+
+	static final int DEFAULT_CONCURRENCY = 16;
+	static final int DEFAULT_SEGMENT_CAPACITY = 16;
+	static final int MAX_SEGMENTS = 1 << 16;
+
+	private final Segment<V>[] segments;
+	private final int segmentShift;
+
+	private static final class Node<V> {
+		final int hash;
+		final byte[] key;
+		volatile V value;
+		volatile Node<V> next;
+		
+		Node(int h, byte[] k, V v, Node<V> n){
+			hash = h; key = k; value = v; next = n;
+		}
+	}
+	
+	/**
+	 * One stripe of the map. Only writers take the lock.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Segment<V> extends ReentrantLock {
+		volatile AtomicReferenceArray<Node<V>> table;
+		volatile int count = 0;
+		int threshold;
+		final int initCapacity;
+		
+		Segment(int capacity){
+			initCapacity = capacity;
+			setTable(new AtomicReferenceArray<Node<V>>(capacity));
+		}
+		
+		void setTable(AtomicReferenceArray<Node<V>> t){
+			threshold = (int)(t.length() * ByteKeyTable.DEFAULT_LOAD_FACTOR);
+			table = t;
+		}
+		
+		/** Lock free lookup */
+		Node<V> find(byte[] key, int h){
+			AtomicReferenceArray<Node<V>> tab = table;
+			Node<V> e = tab.get(h & (tab.length() - 1));
+			while( e != null ){
+				if( e.hash == h && ByteBuilder.equals(e.key, key) )
+					return e;
+				e = e.next;
+			}
+			return null;
+		}
+		
+		/** Must hold lock. Adds a new node at the head of its bucket. */
+		void insert(byte[] key, int h, V value){
+			AtomicReferenceArray<Node<V>> tab = table;
+			if( count >= threshold ) 
+				tab = rehash();
+			int i = h & (tab.length() - 1);
+			tab.set(i, new Node<V>(h, Arrays.copyOf(key, key.length), value, tab.get(i)));
+			count++;
+		}
+		
+		/** Must hold lock. Unlinks the node, if still present. */
+		void unlink(Node<V> node){
+			AtomicReferenceArray<Node<V>> tab = table;
+			int i = node.hash & (tab.length() - 1);
+			Node<V> e = tab.get(i), pred = null;
+			while( e != null ){
+				if( e == node ){
+					if( pred == null ) tab.set(i, e.next);
+					else pred.next = e.next;
+					count--;
+					return;
+				}
+				pred = e;
+				e = e.next;
+			}
+		}
+		
+		/** 
+		 * Must hold lock. Copies every node into a table twice the size and 
+		 * publishes it. Readers still walking the old table see consistent chains.
+		 */
+		AtomicReferenceArray<Node<V>> rehash(){
+			AtomicReferenceArray<Node<V>> old = table;
+			int oldLen = old.length();
+			if( oldLen >= ByteKeyTable.MAX_CAPACITY ) return old;
+			AtomicReferenceArray<Node<V>> tab = new AtomicReferenceArray<Node<V>>(oldLen << 1);
+			int mask = tab.length() - 1;
+			for( int ii = 0; ii < oldLen; ii++){
+				for( Node<V> e = old.get(ii); e != null; e = e.next){
+					int i = e.hash & mask;
+					tab.lazySet(i, new Node<V>(e.hash, e.key, e.value, tab.get(i)));
+				}
+			}
+			setTable(tab);
+			return tab;
+		}
+		
+		void clear(){
+			lock();
+			try {
+				setTable(new AtomicReferenceArray<Node<V>>(initCapacity));
+				count = 0;
+			} finally {
+				unlock();
+			}
+		}
+	}
+
+	public ConcurrentByteArrayMap() {
+		this(DEFAULT_CONCURRENCY * DEFAULT_SEGMENT_CAPACITY, DEFAULT_CONCURRENCY);
+	}
+	public ConcurrentByteArrayMap(int expectedSize) {
+		this(expectedSize, DEFAULT_CONCURRENCY);
+	}
+	/**
+	 * @param expectedSize number of entries this map should hold before it needs to grow.
+	 * @param concurrencyLevel estimated number of threads writing at once. Rounded up 
+	 * to a power of two to give the number of lock stripes.
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentByteArrayMap(int expectedSize, int concurrencyLevel) {
+		if( expectedSize < 0 || concurrencyLevel <= 0 )
+			throw new IllegalArgumentException("Illegal size or concurrency level : " + expectedSize + ", " + concurrencyLevel);
+		int nsegs = ByteKeyTable.tableSizeFor( Math.min(concurrencyLevel, MAX_SEGMENTS) );
+		int perSeg = ByteKeyTable.tableSizeFor( 
+				(int)Math.ceil( (expectedSize / (double)nsegs) / ByteKeyTable.DEFAULT_LOAD_FACTOR ) );
+		segments = (Segment<V>[]) new Segment<?>[nsegs];
+		for( int ii = 0; ii < nsegs; ii++)
+			segments[ii] = new Segment<V>(perSeg);
+		segmentShift = 32 - Integer.numberOfTrailingZeros(nsegs);
+	}
+	
+	/**
+	 * Picks a segment from the top bits of a multiplicative mix of the hash. The
+	 * plain hash's top bits are mostly zero for short keys.
+	 */
+	private Segment<V> segmentFor(int h){
+		return segments[ (h * 0x9E3779B9) >>> segmentShift ];
+	}
+	
+	private static byte[] toKey(Object key){
+		if( key instanceof byte[] ) return (byte[])key;
+		if( key == null ) throw new NullPointerException();
+		throw new RuntimeException("Invalid key type. Must be byte array.");
+	}
+	
+	/**
+	 * Returns the value stored at this key. Null otherwise. Never locks.
+	 * @param key
+	 * @return
+	 */
+	public V get(byte[] key){
+		int h = ByteKeyTable.hash(key);
+		Node<V> e = segmentFor(h).find(key, h);
+		return ( e == null ) ? null : e.value;
+	}
+	@Override
+	public V get(Object key) {
+		return get(toKey(key));
+	}
+	
+	/**
+	 * Determines if a key is present. Never locks.
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(byte[] key){
+		int h = ByteKeyTable.hash(key);
+		return segmentFor(h).find(key, h) != null;
+	}
+	@Override
+	public boolean containsKey(Object key) {
+		return containsKey(toKey(key));
+	}
+	
+	@Override
+	public V put(byte[] key, V value) {
+		if( value == null ) throw new NullPointerException();
+		return put(key, value, false);
+	}
+	
+	@Override
+	public V putIfAbsent(byte[] key, V value) {
+		if( value == null ) throw new NullPointerException();
+		return put(key, value, true);
+	}
+	
+	private V put(byte[] key, V value, boolean onlyIfAbsent){
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			if( e != null ){
+				V old = e.value;
+				if( ! onlyIfAbsent ) e.value = value;
+				return old;
+			}
+			s.insert(key, h, value);
+			return null;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	/**
+	 * Removes an entry.
+	 * @param key
+	 * @return the value removed, null if absent.
+	 */
+	public V remove(byte[] key){
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			if( e == null ) return null;
+			s.unlink(e);
+			return e.value;
+		} finally {
+			s.unlock();
+		}
+	}
+	@Override
+	public V remove(Object key) {
+		return remove(toKey(key));
+	}
+	
+	@Override
+	public boolean remove(Object key, Object value) {
+		byte[] k = toKey(key);
+		if( value == null ) return false;
+		int h = ByteKeyTable.hash(k);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(k, h);
+			if( e == null || ! value.equals(e.value) ) return false;
+			s.unlink(e);
+			return true;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	@Override
+	public boolean replace(byte[] key, V oldValue, V newValue) {
+		if( oldValue == null || newValue == null ) throw new NullPointerException();
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			if( e == null || ! oldValue.equals(e.value) ) return false;
+			e.value = newValue;
+			return true;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	@Override
+	public V replace(byte[] key, V value) {
+		if( value == null ) throw new NullPointerException();
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			if( e == null ) return null;
+			V old = e.value;
+			e.value = value;
+			return old;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	/**
+	 * Lock free when the key is already present.
+	 */
+	@Override
+	public V computeIfAbsent(byte[] key, Function<? super byte[], ? extends V> mappingFunction) {
+		if( mappingFunction == null ) throw new NullPointerException();
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		Node<V> e = s.find(key, h);
+		if( e != null ) return e.value;
+		s.lock();
+		try {
+			e = s.find(key, h);
+			if( e != null ) return e.value;
+			V v = mappingFunction.apply(key);
+			if( v != null ) s.insert(key, h, v);
+			return v;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	@Override
+	public V computeIfPresent(byte[] key, BiFunction<? super byte[], ? super V, ? extends V> remappingFunction) {
+		if( remappingFunction == null ) throw new NullPointerException();
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		if( s.find(key, h) == null ) return null;
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			if( e == null ) return null;
+			V v = remappingFunction.apply(e.key, e.value);
+			if( v == null ) s.unlink(e);
+			else e.value = v;
+			return v;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	@Override
+	public V compute(byte[] key, BiFunction<? super byte[], ? super V, ? extends V> remappingFunction) {
+		if( remappingFunction == null ) throw new NullPointerException();
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			V v = remappingFunction.apply( (e == null) ? key : e.key, (e == null) ? null : e.value );
+			if( e == null ){
+				if( v != null ) s.insert(key, h, v);
+			}else if( v == null ){
+				s.unlink(e);
+			}else{
+				e.value = v;
+			}
+			return v;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	@Override
+	public V merge(byte[] key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		if( value == null || remappingFunction == null ) throw new NullPointerException();
+		int h = ByteKeyTable.hash(key);
+		Segment<V> s = segmentFor(h);
+		s.lock();
+		try {
+			Node<V> e = s.find(key, h);
+			if( e == null ){
+				s.insert(key, h, value);
+				return value;
+			}
+			V v = remappingFunction.apply(e.value, value);
+			if( v == null ) s.unlink(e);
+			else e.value = v;
+			return v;
+		} finally {
+			s.unlock();
+		}
+	}
+	
+	/**
+	 * Sum of the segment sizes. Only a snapshot while writers are active.
+	 */
+	@Override
+	public int size() {
+		long n = 0;
+		for( Segment<V> s : segments ) 
+			n += s.count;
+		return ( n > Integer.MAX_VALUE ) ? Integer.MAX_VALUE : (int)n;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		for( Segment<V> s : segments ) 
+			if( s.count != 0 ) return false;
+		return true;
+	}
+	
+	@Override
+	public void clear() {
+		for( Segment<V> s : segments ) 
+			s.clear();
+	}
+	
+	@Override
+	public Set<Entry<byte[], V>> entrySet() {
+		return new AbstractSet<Entry<byte[],V>>() {
+			@Override
+			public Iterator<Entry<byte[], V>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return ConcurrentByteArrayMap.this.size();
+			}
+			@Override
+			public void clear() {
+				ConcurrentByteArrayMap.this.clear();
+			}
+		};
+	}
+	
+	/**
+	 * Walks each segment's table as it was when the iterator reached it.
+	 * Sees some, all or none of the writes made after the iterator was created.
+	 */
+	private final class EntryIterator implements Iterator<Entry<byte[], V>> {
+		int seg = 0;
+		int bucket = 0;
+		AtomicReferenceArray<Node<V>> tab = null;
+		Node<V> next = null;
+		Node<V> last = null;
+		
+		EntryIterator(){
+			advance();
+		}
+		
+		private void advance(){
+			if( next != null && (next = next.next) != null ) return;
+			while( true ){
+				if( tab != null ){
+					while( bucket < tab.length() ){
+						if( (next = tab.get(bucket++)) != null ) return;
+					}
+				}
+				if( seg >= segments.length ){
+					tab = null;
+					return;
+				}
+				tab = segments[seg++].table;
+				bucket = 0;
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		@Override
+		public Entry<byte[], V> next() {
+			if( next == null ) throw new NoSuchElementException();
+			last = next;
+			advance();
+			final Node<V> e = last;
+			return new SimpleEntry<byte[], V>(e.key, e.value){
+				private static final long serialVersionUID = 1L;
+				@Override
+				public V setValue(V value) {
+					super.setValue(value);
+					return put(e.key, value);
+				}
+			};
+		}
+		@Override
+		public void remove() {
+			if( last == null ) throw new IllegalStateException();
+			ConcurrentByteArrayMap.this.remove(last.key);
+			last = null;
+		}
+	}
+}
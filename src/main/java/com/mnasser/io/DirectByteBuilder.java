@@ -0,0 +1,316 @@
+package com.mnasser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Modifiable sequence of bytes like {@link ByteBuilder}, kept in a direct
+ * (off-heap) ByteBuffer instead of a byte[].
+ * <p>
+ * The JDK copies heap arrays into a temporary direct buffer on every socket or
+ * file channel write. {@link #writeTo(WritableByteChannel)} hands the channel
+ * this builder's own memory, so output is copied once, on append, and never again.
+ * <p>
+ * Grows like ByteBuilder. The old buffer is freed right away rather than left
+ * for the GC, as is the current one on {@link #close()}, after which the builder
+ * must not be used. Searches compare 8 bytes at a time like ByteBuilder's.
+ * <p>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ */
+public class DirectByteBuilder implements Closeable {
+
+	private ByteBuffer buf; // only absolute gets and puts, its position and limit are unused
+	private int capacity;
+	private int position = 0;
+
+	public DirectByteBuilder() {
+		this(256);
+	}
+	public DirectByteBuilder(int initCapacity) {
+		if( initCapacity < 0 )
+			throw new IllegalArgumentException("Negative capacity : " + initCapacity);
+		capacity = initCapacity;
+		buf = allocate(capacity);
+	}
+
+	private static ByteBuffer allocate(int capacity){
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void expandCapacity(int minimumCapacity){
+		int newCapacity = ByteBuilder.getNextCapacitySize(capacity);
+		if( minimumCapacity > newCapacity ){
+			newCapacity = minimumCapacity;
+		}
+		if( newCapacity < 0 ){
+			newCapacity = Integer.MAX_VALUE;
+		}
+		ByteBuffer nb = allocate(newCapacity);
+		nb.put(0, buf, 0, position);
+		DirectMemory.free(buf);
+		buf = nb;
+		capacity = newCapacity;
+	}
+	private void ensureCapacity(int len){
+		if( position + len > capacity ){
+			expandCapacity(position + len);
+		}
+	}
+
+	public DirectByteBuilder append(byte bite){
+		ensureCapacity(1);
+		buf.put(position++, bite);
+		return this;
+	}
+	public DirectByteBuilder append(byte[] bb){
+		return append(bb, 0, bb.length);
+	}
+	public DirectByteBuilder append(byte[] bb, int length){
+		return append(bb, 0, length);
+	}
+	public DirectByteBuilder append(byte[] bb, int off, int len){
+		ensureCapacity(len);
+		buf.put(position, bb, off, len);
+		position += len;
+		return this;
+	}
+	/**
+	 * Appends all the remaining bytes of the buffer, advancing its position to its limit.
+	 */
+	public DirectByteBuilder append(ByteBuffer src){
+		int len = src.remaining();
+		ensureCapacity(len);
+		buf.put(position, src, src.position(), len);
+		src.position(src.limit());
+		position += len;
+		return this;
+	}
+	public DirectByteBuilder append(ByteBuilder bb){
+		int len = bb.length();
+		ensureCapacity(len);
+		bb.copyTo(0, buf, position, len);
+		position += len;
+		return this;
+	}
+	public DirectByteBuilder append(DirectByteBuilder bb){
+		int len = bb.position;
+		ensureCapacity(len);
+		buf.put(position, bb.buf, 0, len);
+		position += len;
+		return this;
+	}
+
+	public byte byteAt(int i){
+		if( i >= position ) throw new IndexOutOfBoundsException("Trying to get an index ("+i+") greater than length : " + position);
+		return buf.get(i);
+	}
+	public void setByteAt(int i, byte bite){
+		if( i >= position ) throw new IndexOutOfBoundsException("Trying to set an index ("+i+") greater than length : " + position);
+		buf.put(i, bite);
+	}
+
+	public int indexOf(byte bite){
+		return indexOf(bite, 0);
+	}
+	/**
+	 * Returns index of the first occurance of the byte starting from the given
+	 * index inclusive, -1 if none.
+	 */
+	public int indexOf(byte bite, int start){
+		if( start >= position ) return -1;
+		return indexOf(bite, Math.max(start, 0), position);
+	}
+	private int indexOf(byte bite, int from, int to){
+		long p = ByteBuilder.broadcast(bite);
+		int i = from;
+		for( int last = to - 8; i <= last; i += 8){
+			long m = ByteBuilder.matches(buf.getLong(i), p);
+			if( m != 0 ) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+		}
+		for( ; i < to; i++){
+			if( buf.get(i) == bite ) return i;
+		}
+		return -1;
+	}
+
+	public int indexOfAny(byte... bites){
+		return indexOfAny(bites, 0);
+	}
+	/**
+	 * Returns index of the first occurance of any of the given bytes starting
+	 * from the given index inclusive, -1 if none.
+	 */
+	public int indexOfAny(byte[] bites, int start){
+		if( start >= position ) return -1;
+		start = Math.max(start, 0);
+		if( bites.length == 1 ) return indexOf(bites[0], start, position);
+		if( bites.length == 2 ){
+			byte b0 = bites[0], b1 = bites[1];
+			long p0 = ByteBuilder.broadcast(b0), p1 = ByteBuilder.broadcast(b1);
+			int i = start;
+			for( int last = position - 8; i <= last; i += 8){
+				long w = buf.getLong(i);
+				long m = ByteBuilder.matches(w, p0) | ByteBuilder.matches(w, p1);
+				if( m != 0 ) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+			}
+			for( ; i < position; i++){
+				byte c = buf.get(i);
+				if( c == b0 || c == b1 ) return i;
+			}
+			return -1;
+		}
+		for( int i = start; i < position; i++){
+			byte c = buf.get(i);
+			for( byte bite : bites ){
+				if( c == bite ) return i;
+			}
+		}
+		return -1;
+	}
+
+	public int indexOf(byte[] pattern){
+		return indexOf(pattern, 0);
+	}
+	/**
+	 * Returns index of the first occurance of the given sequence of bytes
+	 * starting from the given index inclusive, -1 if none.
+	 */
+	public int indexOf(byte[] pattern, int start){
+		int m = pattern.length;
+		int last = position - m;
+		start = Math.max(start, 0);
+		if( m == 0 ) return ( start <= position ) ? start : -1;
+		byte first = pattern[0];
+		for( int i = start; i <= last; i++){
+			if( (i = indexOf(first, i, last + 1)) == -1 ) return -1;
+			int j = 1;
+			while( j < m && buf.get(i + j) == pattern[j] ) j++;
+			if( j == m ) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes len bytes starting from the given index, shifting the rest down.
+	 */
+	public DirectByteBuilder delete(int idx, int len){
+		if( idx >= position ) return this;
+		if( idx + len >= position ){
+			position = idx;
+			return this;
+		}
+		ByteBuffer tail = buf.duplicate();
+		tail.position(idx).limit(position);
+		tail = tail.slice();
+		tail.position(len);
+		tail.compact();
+		position -= len;
+		return this;
+	}
+	/**
+	 * Deletes everything from the given index on.
+	 */
+	public DirectByteBuilder truncate(int i){
+		if( i < position ) position = i;
+		return this;
+	}
+	public void clear(){
+		position = 0;
+	}
+
+	/**
+	 * Returns a copy of the range [from, to) on the heap.
+	 */
+	public byte[] subSequence(int from, int to){
+		if( from > position || to > position )
+			throw new IndexOutOfBoundsException("Attempt to access index greater than " + position);
+		byte[] res = new byte[to - from];
+		buf.get(from, res, 0, to - from);
+		return res;
+	}
+	/**
+	 * Gets a copy of the current contents on the heap.
+	 */
+	public byte[] getContent(){
+		return subSequence(0, position);
+	}
+	public void copyTo(int from, byte[] dst, int off, int len){
+		if( from < 0 || len < 0 || from + len > position )
+			throw new IndexOutOfBoundsException("Attempt to copy ["+from+", "+(from+len)+") of length " + position);
+		buf.get(from, dst, off, len);
+	}
+	/**
+	 * Read only view of the current contents, sharing this builder's memory.
+	 * Only valid until the builder next grows or is closed.
+	 */
+	public ByteBuffer asByteBuffer(){
+		ByteBuffer view = buf.asReadOnlyBuffer();
+		view.limit(position);
+		return view;
+	}
+
+	/**
+	 * Writes the whole contents to the channel straight from this builder's
+	 * memory, without any intermediate copy. Keeps writing until everything is
+	 * written, so a non blocking channel should be given only when it can take it.
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	public long writeTo(WritableByteChannel ch) throws IOException {
+		ByteBuffer view = buf.duplicate();
+		view.limit(position);
+		long written = 0;
+		while( view.hasRemaining() )
+			written += ch.write(view);
+		return written;
+	}
+
+	public int length(){
+		return position;
+	}
+	public int getCapacity(){
+		return capacity;
+	}
+	public boolean isEmpty(){
+		return position == 0;
+	}
+	/**
+	 * Amount you can fill this builder by before it needs to grow.
+	 */
+	public int space(){
+		return capacity - position;
+	}
+
+	/**
+	 * Frees the off-heap memory now. The builder must not be used afterwards.
+	 */
+	@Override
+	public void close(){
+		DirectMemory.free(buf);
+		buf = null;
+		capacity = position = 0;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for( int i = 0; i < position; i++)
+			h = 31*h + buf.get(i);
+		return h;
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if( this == obj ) return true;
+		if( !(obj instanceof DirectByteBuilder) ) return false;
+		DirectByteBuilder o = (DirectByteBuilder) obj;
+		return position == o.position && asByteBuffer().equals(o.asByteBuffer());
+	}
+	@Override
+	public String toString() {
+		return new String(getContent());
+	}
+}
@@ -0,0 +1,53 @@
+package com.mnasser.io;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for allocating and explicitly releasing direct (off-heap) buffers.
+ * <p>
+ * The JDK only frees a direct buffer's native memory once the buffer object 
+ * itself is garbage collected. Holders of large arenas call {@link #free(ByteBuffer)}
+ * so the memory goes back to the OS right away instead of waiting on a full GC.
+ * @author mnasser
+ */
+final class DirectMemory {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			// not available - fall back to letting the GC release buffers
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+	
+	private DirectMemory(){}
+	
+	/**
+	 * Releases the native memory behind a direct buffer. The buffer (and any 
+	 * view of it) must never be touched again. No-op for heap buffers.
+	 * @param buf
+	 */
+	static void free(ByteBuffer buf){
+		if( buf == null || ! buf.isDirect() || INVOKE_CLEANER == null ) return;
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buf);
+		} catch (Exception e) {
+			// slices and duplicates have no cleaner of their own; leave to GC
+		}
+	}
+}
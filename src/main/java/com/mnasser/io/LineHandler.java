@@ -0,0 +1,24 @@
+package com.mnasser.io;
+
+import java.io.IOException;
+
+/**
+ * Receives lines of text as a range of a byte array, without the line terminator.
+ * <p>
+ * The array is the reader's own buffer and is only valid for the duration of 
+ * the call. Copy out whatever needs to be kept.
+ * @author mnasser
+ * @see ByteArrayReader#forEachLine(LineHandler)
+ */
+public interface LineHandler {
+
+	/**
+	 * Called once per line.
+	 * @param buf buffer holding the line
+	 * @param off index of the first byte of the line
+	 * @param len length of the line not including its terminator
+	 * @return true to keep reading, false to stop after this line
+	 * @throws IOException
+	 */
+	boolean onLine(byte[] buf, int off, int len) throws IOException;
+}
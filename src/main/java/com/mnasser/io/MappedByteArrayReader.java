@@ -0,0 +1,244 @@
+package com.mnasser.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads lines of text from a file as byte[] by memory mapping it, instead of 
+ * copying it through an InputStream like {@link ByteArrayReader}.
+ * <p>
+ * The file is mapped one window at a time and line terminators are searched 
+ * for directly in the mapped pages. When a line runs off the end of a window
+ * the next window is mapped starting at that line, so a line is only ever split
+ * if it is longer than the window itself, in which case the window is grown to 
+ * fit. Positions are longs so files larger than 2GB are fine.
+ * <p>
+ * Lines end at \n, \r or \r\n. A reader can be restricted to a byte range of 
+ * the file, in which case it returns the lines starting inside that range, 
+ * whole, even if the last of them runs past the range's end.
+ * <p>
+ * <strong>NOT THREAD SAFE.</strong>
+ * @author mnasser
+ * @see ByteArrayReader
+ */
+public class MappedByteArrayReader implements Closeable {
+
+	static final int DEFAULT_WINDOW_SIZE = 1 << 28; // 256MB
+	private static final byte NL = (byte)'\n';
+	private static final byte CR = (byte)'\r';
+	private static final long NLS = ByteBuilder.broadcast(NL);
+	private static final long CRS = ByteBuilder.broadcast(CR);
+	
+	private final RandomAccessFile file;
+	private final FileChannel ch;
+	private final long end;
+	private final long size; // of the file, lines may be read up to here
+	private final int windowSize;
+	
+	private MappedByteBuffer win = null;
+	private long winStart = 0;
+	private int winLimit = 0;
+	private long pos;
+	
+	// set by next()
+	private int lineOff;
+	private long lineStart;
+	
+	private byte[] scratch = new byte[1024];
+	private int total_lines = 0;
+	private long total_bytes = 0;
+	
+	public MappedByteArrayReader(File f) throws IOException {
+		this(f, 0, Long.MAX_VALUE, DEFAULT_WINDOW_SIZE);
+	}
+	public MappedByteArrayReader(File f, int windowSize) throws IOException {
+		this(f, 0, Long.MAX_VALUE, windowSize);
+	}
+	/**
+	 * Reads only the lines starting within [start, end) of the file. The last 
+	 * one is read up to its terminator, which may lie beyond end.
+	 * @param f
+	 * @param start offset of the first byte to read. Expected to be the start of a line.
+	 * @param end offset one past the last line start to read, capped at the file's length.
+	 * @param windowSize number of bytes mapped at once
+	 * @throws IOException
+	 */
+	public MappedByteArrayReader(File f, long start, long end, int windowSize) throws IOException {
+		this(new RandomAccessFile(f, "r"), start, end, windowSize);
+	}
+	private MappedByteArrayReader(RandomAccessFile file, long start, long end, int windowSize) throws IOException {
+		this(file, file.getChannel(), start, end, windowSize);
+	}
+	/**
+	 * Reads a range of an already open channel, which is left open by {@link #close()}.
+	 */
+	MappedByteArrayReader(FileChannel ch, long start, long end, int windowSize) throws IOException {
+		this(null, ch, start, end, windowSize);
+	}
+	private MappedByteArrayReader(RandomAccessFile file, FileChannel ch, long start, long end, int windowSize) throws IOException {
+		if( windowSize <= 0 || start < 0 || start > end ){
+			if( file != null ) file.close();
+			throw new IllegalArgumentException("Invalid window size or range : " + windowSize + ", " + start + " - " + end);
+		}
+		this.file = file;
+		this.ch = ch;
+		this.size = ch.size();
+		this.end = Math.min(end, size);
+		this.windowSize = windowSize;
+		this.pos = start;
+	}
+	
+	/**
+	 * Maps size bytes starting at the given file offset, releasing the previous window.
+	 */
+	private void map(long from, long size) throws IOException {
+		DirectMemory.free(win);
+		win = null;
+		int len = (int)Math.min(size, this.size - from);
+		win = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+		win.order(ByteOrder.LITTLE_ENDIAN);
+		winStart = from;
+		winLimit = len;
+	}
+	
+	/**
+	 * Locates the next line in the current window, remapping as needed.
+	 * Sets <code>lineOff</code> and <code>lineStart</code>.
+	 * @return length of the line, -1 at the end of the range
+	 */
+	private int next() throws IOException {
+		if( pos >= end ) return -1;
+		if( win == null || pos >= winStart + winLimit )
+			map(pos, windowSize);
+		
+		int off = (int)(pos - winStart);
+		int i = off;
+		while( true ){
+			i = scan(i);
+			boolean atEnd = winStart + winLimit >= size;
+			if( i < winLimit && ( win.get(i) == NL || i + 1 < winLimit || atEnd ) ){
+				int lf = ( win.get(i) == CR && i + 1 < winLimit && win.get(i+1) == NL ) ? 2 : 1;
+				return found(off, i - off, lf);
+			}
+			if( atEnd ) // last line has no terminator
+				return found(off, winLimit - off, 0);
+			
+			// line runs past the window, remap starting at the line
+			int scanned = i - off;
+			if( off > 0 ){
+				map(pos, windowSize);
+			}else{
+				long grown = Math.min( (long)winLimit * 2, Integer.MAX_VALUE );
+				if( grown <= winLimit ) 
+					throw new IOException("Line at offset " + pos + " is longer than " + winLimit + " bytes");
+				map(pos, grown);
+			}
+			off = 0;
+			i = scanned;
+		}
+	}
+	
+	/**
+	 * Index of the first \n or \r in the window at or after i, winLimit if none.
+	 * Compares 8 bytes per step, see {@link ByteBuilder#indexOfAny(byte[], int, int, byte...)}.
+	 */
+	private int scan(int i){
+		for( int last = winLimit - 8; i <= last; i += 8){
+			long w = win.getLong(i);
+			long m = ByteBuilder.matches(w, NLS) | ByteBuilder.matches(w, CRS);
+			if( m != 0 ) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+		}
+		for( ; i < winLimit; i++){
+			byte c = win.get(i);
+			if( c == NL || c == CR ) return i;
+		}
+		return winLimit;
+	}
+	
+	private int found(int off, int len, int lf){
+		lineOff = off;
+		lineStart = pos;
+		pos += len + lf;
+		total_lines++;
+		total_bytes += len + lf;
+		return len;
+	}
+	
+	/**
+	 * Returns a copy of the next line of text not including its line terminator.
+	 * @return the line, null once there are no more lines
+	 * @throws IOException
+	 */
+	public byte[] readLine() throws IOException {
+		int len = next();
+		if( len == -1 ) return null;
+		byte[] res = new byte[len];
+		win.get(lineOff, res, 0, len);
+		return res;
+	}
+	
+	/**
+	 * Hands every remaining line to the handler. Each line is bulk copied out of 
+	 * the mapping into one reused buffer, so nothing is allocated per line.
+	 * @param h handler called once per line. The buffer it is given is only valid
+	 * during the call.
+	 * @return number of lines handed to the handler
+	 * @throws IOException
+	 */
+	public long forEachLine(LineHandler h) throws IOException {
+		long lines = 0;
+		int len;
+		while( (len = next()) != -1 ){
+			if( len > scratch.length )
+				scratch = Arrays.copyOf(scratch, Math.max(len, ByteBuilder.getNextCapacitySize(scratch.length)));
+			win.get(lineOff, scratch, 0, len);
+			lines++;
+			if( ! h.onLine(scratch, 0, len) ) break;
+		}
+		return lines;
+	}
+	
+	/**
+	 * File offset of the start of the line most recently returned.
+	 * @return
+	 */
+	public long lineStart(){
+		return lineStart;
+	}
+	
+	/**
+	 * File offset of the next byte to be read.
+	 * @return
+	 */
+	public long position(){
+		return pos;
+	}
+	
+	/**
+	 * Current number of lines read so far.
+	 * @return
+	 */
+	public int linesRead(){
+		return total_lines;
+	}
+	/**
+	 * Current number of bytes read so far, including line terminators.
+	 * @return
+	 */
+	public long bytesRead(){
+		return total_bytes;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		DirectMemory.free(win);
+		win = null;
+		if( file != null ) file.close();
+	}
+}
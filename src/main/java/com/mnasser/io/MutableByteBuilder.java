@@ -40,21 +40,18 @@ public class MutableByteBuilder extends ByteBuilder {
 		position += p;
 	}
 	
-	//Seems there is no significant speed advantage in doing it this way Arrays.copyOf() is just fine
+	/**
+	 * Copies the given bytes into the existing backing store when they fit,
+	 * otherwise adopts the given array as the new backing store (NOT A COPY).
+	 */
 	@Override
 	public void reset(byte[] bb) {
-		int p = 0;
 		if ( b.length >= bb.length ){
-			for(byte bite : bb ){
-				b[p] = bite;
-				p++;
-			}
+			System.arraycopy(bb, 0, b, 0, bb.length);
 		}else{
 			b = bb;
-			p = b.length;
 		}
-		//b = bb;
-		position = p;
+		position = bb.length;
 		capacity = b.length;
 	}
 	
@@ -0,0 +1,291 @@
+package com.mnasser.io;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A byte[] to byte[] hash map whose keys and values live outside the java heap.
+ * <p>
+ * Every entry is written as one record <code>[key length][value length][key][value]</code>
+ * into an append-only arena of direct {@link ByteBuffer} chunks. The only on heap 
+ * structure is a compact open-addressing index of record addresses and hash codes
+ * (12 bytes per slot), so the garbage collector never sees individual keys or values.
+ * <p>
+ * Removing an entry, or replacing a value with one of a different length, leaves the
+ * old record behind as garbage in the arena until {@link #clear()}. Native memory is 
+ * released explicitly by {@link #clear()} or {@link #close()}.
+ * </br></br>
+ * NOTE: <strong>Not thread safe</strong>
+ * @author mnasser
+ * @see ByteArrayMap
+ */
+public class OffHeapByteArrayMap implements Closeable {
+
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+	private static final int HEADER = 8; // key length + value length
+	private static final long EMPTY = -1L;
+	
+	private final int chunkSize;
+	private final int initCapacity;
+	private final float loadFactor = ByteKeyTable.DEFAULT_LOAD_FACTOR;
+	
+	// arena
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private ByteBuffer current = null;
+	private long allocated = 0;
+	private long wasted = 0;
+	
+	// index
+	private long[] addrs;
+	private int[] hashes;
+	private int mask;
+	private int threshold;
+	private int entries = 0;
+	
+	public OffHeapByteArrayMap() {
+		this(ByteKeyTable.DEFAULT_CAPACITY, DEFAULT_CHUNK_SIZE);
+	}
+	public OffHeapByteArrayMap(int expectedSize) {
+		this(expectedSize, DEFAULT_CHUNK_SIZE);
+	}
+	/**
+	 * @param expectedSize number of entries the index should hold before it needs to grow.
+	 * @param chunkSize size in bytes of each direct buffer allocated for the arena. 
+	 * Records larger than this get a chunk of their own.
+	 */
+	public OffHeapByteArrayMap(int expectedSize, int chunkSize) {
+		if( chunkSize < HEADER )
+			throw new IllegalArgumentException("Chunk size too small : " + chunkSize);
+		if( expectedSize < 0 )
+			throw new IllegalArgumentException("Negative size : " + expectedSize);
+		this.chunkSize = chunkSize;
+		this.initCapacity = ByteKeyTable.tableSizeFor( (int)Math.ceil(expectedSize / loadFactor) );
+		allocate(initCapacity);
+	}
+	
+	private void allocate(int capacity){
+		addrs = new long[capacity];
+		Arrays.fill(addrs, EMPTY);
+		hashes = new int[capacity];
+		mask = capacity - 1;
+		threshold = (capacity == ByteKeyTable.MAX_CAPACITY) ? capacity - 1 : (int)(capacity * loadFactor);
+	}
+	
+	private void resize(){
+		if( addrs.length == ByteKeyTable.MAX_CAPACITY )
+			throw new IllegalStateException("OffHeapByteArrayMap is full : " + entries);
+		long[] oldAddrs = addrs;
+		int[] oldHashes = hashes;
+		allocate(addrs.length << 1);
+		for( int ii = 0, len = oldAddrs.length; ii < len; ii++){
+			if( oldAddrs[ii] == EMPTY ) continue;
+			int i = oldHashes[ii] & mask;
+			while( addrs[i] != EMPTY )
+				i = (i + 1) & mask;
+			addrs[i] = oldAddrs[ii];
+			hashes[i] = oldHashes[ii];
+		}
+	}
+	
+	/*  Addresses pack the chunk number in the upper 32 bits and the 
+	 *  offset within that chunk in the lower 32 bits. */
+	private static long address(int chunk, int offset){
+		return ((long)chunk << 32) | offset;
+	}
+	private ByteBuffer chunk(long addr){
+		return chunks.get((int)(addr >>> 32));
+	}
+	private static int offset(long addr){
+		return (int)addr;
+	}
+	
+	/**
+	 * Appends a record to the arena and returns its address.
+	 */
+	private long write(byte[] key, byte[] value){
+		int size = HEADER + key.length + value.length;
+		if( size < 0 )
+			throw new IllegalArgumentException("Record too large : " + key.length + " + " + value.length);
+		if( current == null || current.remaining() < size ){
+			current = ByteBuffer.allocateDirect( Math.max(size, chunkSize) );
+			chunks.add(current);
+			allocated += current.capacity();
+		}
+		int off = current.position();
+		current.putInt(key.length).putInt(value.length).put(key).put(value);
+		return address(chunks.size() - 1, off);
+	}
+	
+	private boolean keyEquals(long addr, byte[] key){
+		ByteBuffer c = chunk(addr);
+		int off = offset(addr);
+		if( c.getInt(off) != key.length ) return false;
+		off += HEADER;
+		for( int ii = 0, len = key.length; ii < len; ii++){
+			if( c.get(off + ii) != key[ii] )
+				return false;
+		}
+		return true;
+	}
+	
+	private byte[] readValue(long addr){
+		ByteBuffer c = chunk(addr);
+		int off = offset(addr);
+		int klen = c.getInt(off);
+		byte[] v = new byte[c.getInt(off + 4)];
+		c.get(off + HEADER + klen, v);
+		return v;
+	}
+	
+	private int recordSize(long addr){
+		ByteBuffer c = chunk(addr);
+		int off = offset(addr);
+		return HEADER + c.getInt(off) + c.getInt(off + 4);
+	}
+	
+	private int indexOf(byte[] key, int h){
+		int i = h & mask;
+		long a;
+		while( (a = addrs[i]) != EMPTY ){
+			if( hashes[i] == h && keyEquals(a, key) )
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Copies the key and value into the arena.
+	 * A value of the same length as the one already stored is overwritten in place.
+	 * @param key
+	 * @param value
+	 * @return the value given
+	 */
+	public byte[] put(byte[] key, byte[] value){
+		int h = ByteKeyTable.hash(key);
+		int i = h & mask;
+		long a;
+		while( (a = addrs[i]) != EMPTY ){
+			if( hashes[i] == h && keyEquals(a, key) ){
+				ByteBuffer c = chunk(a);
+				int off = offset(a);
+				if( c.getInt(off + 4) == value.length ){
+					c.put(off + HEADER + key.length, value);
+				}else{
+					wasted += recordSize(a);
+					addrs[i] = write(key, value);
+				}
+				return value;
+			}
+			i = (i + 1) & mask;
+		}
+		addrs[i] = write(key, value);
+		hashes[i] = h;
+		if( ++entries > threshold )
+			resize();
+		return value;
+	}
+	
+	/**
+	 * Returns a copy of the value stored at this key. Null otherwise.
+	 * @param key
+	 * @return
+	 */
+	public byte[] get(byte[] key){
+		int i = indexOf(key, ByteKeyTable.hash(key));
+		return ( i == -1 ) ? null : readValue(addrs[i]);
+	}
+	
+	/**
+	 * Determines if a key is present 
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(byte[] key){
+		return indexOf(key, ByteKeyTable.hash(key)) != -1;
+	}
+	
+	/**
+	 * Removes an entry. Its record stays in the arena until {@link #clear()}.
+	 * @param key
+	 * @return copy of the value that was removed, null if the key was absent.
+	 */
+	public byte[] remove(byte[] key){
+		int i = indexOf(key, ByteKeyTable.hash(key));
+		if( i == -1 ) return null;
+		byte[] v = readValue(addrs[i]);
+		wasted += recordSize(addrs[i]);
+		removeAt(i);
+		return v;
+	}
+	
+	/**
+	 * Backward-shift deletion, same as {@link ByteArrayMap}.
+	 */
+	private void removeAt(int i){
+		entries--;
+		int j = i;
+		while( true ){
+			addrs[i] = EMPTY;
+			int home;
+			do {
+				j = (j + 1) & mask;
+				if( addrs[j] == EMPTY ) return;
+				home = hashes[j] & mask;
+			} while( (i <= j) ? (i < home && home <= j) : (i < home || home <= j) );
+			addrs[i] = addrs[j];
+			hashes[i] = hashes[j];
+			i = j;
+		}
+	}
+	
+	public int size(){
+		return entries;
+	}
+	
+	public boolean isEmpty(){
+		return entries == 0;
+	}
+	
+	/**
+	 * Total bytes of native memory currently held by the arena.
+	 * @return
+	 */
+	public long allocatedBytes(){
+		return allocated;
+	}
+	
+	/**
+	 * Bytes in the arena taken up by removed or replaced records.
+	 * @return
+	 */
+	public long wastedBytes(){
+		return wasted;
+	}
+	
+	/**
+	 * Removes every entry and hands all of the arena's native memory back 
+	 * immediately. The map may still be used afterwards.
+	 */
+	public void clear(){
+		for( ByteBuffer c : chunks )
+			DirectMemory.free(c);
+		chunks.clear();
+		current = null;
+		allocated = 0;
+		wasted = 0;
+		allocate(initCapacity);
+		entries = 0;
+	}
+	
+	/**
+	 * Same as {@link #clear()}.
+	 */
+	@Override
+	public void close(){
+		clear();
+	}
+}
@@ -0,0 +1,251 @@
+package com.mnasser.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the lines of one large file on several cores at once.
+ * <p>
+ * The file is cut into byte ranges whose boundaries are moved forward to the 
+ * start of the next line, so no line is ever split between two ranges. Each 
+ * range is then read by its own {@link MappedByteArrayReader}, with the same 
+ * \n, \r and \r\n line endings.
+ * <p>
+ * Lines can either be pushed to one {@link LineHandler} per range, each only ever
+ * called from a single thread, or pulled through a parallel {@link Stream}.
+ * Line order is only preserved within a range.
+ * @author mnasser
+ * @see MappedByteArrayReader
+ */
+public class ParallelLineReader {
+
+	static final int MIN_SPLIT_SIZE = 1 << 20;
+	
+	private final File file;
+	private final int parallelism;
+	private final int windowSize;
+	
+	public ParallelLineReader(File f) {
+		this(f, Runtime.getRuntime().availableProcessors());
+	}
+	public ParallelLineReader(File f, int parallelism) {
+		this(f, parallelism, MappedByteArrayReader.DEFAULT_WINDOW_SIZE);
+	}
+	/**
+	 * @param f file to read
+	 * @param parallelism number of ranges, and threads, to read the file with
+	 * @param windowSize number of bytes each reader maps at once
+	 */
+	public ParallelLineReader(File f, int parallelism, int windowSize) {
+		if( parallelism <= 0 ) throw new IllegalArgumentException("Invalid parallelism : " + parallelism);
+		this.file = f;
+		this.parallelism = parallelism;
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Returns the first line start at or after p, or end if there is none before it.
+	 * A line starts after a \n, or after a \r that is not followed by \n.
+	 */
+	static long align(FileChannel ch, long p, long end) throws IOException {
+		if( p <= 0 ) return 0;
+		if( p >= end ) return end;
+		ByteBuffer buf = ByteBuffer.allocate(8 * 1024);
+		long at = p - 1;
+		boolean cr = false; // previous byte was a \r
+		while( at < end ){
+			buf.clear();
+			int got = ch.read(buf, at);
+			if( got <= 0 ) return end;
+			for( int ii = 0; ii < got; ii++, at++){
+				byte c = buf.get(ii);
+				if( cr ) return ( c == '\n' ) ? at + 1 : at;
+				if( c == '\n' ) return at + 1;
+				cr = ( c == '\r' );
+			}
+		}
+		return end;
+	}
+	
+	/**
+	 * Cuts the file into at most <code>parallelism</code> ranges that each start 
+	 * at a line boundary.
+	 * @return range boundaries, range i being [bounds[i], bounds[i+1])
+	 * @throws IOException
+	 */
+	public long[] split() throws IOException {
+		try( FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ) ){
+			long size = ch.size();
+			List<Long> bounds = new ArrayList<Long>();
+			bounds.add(0L);
+			long prev = 0;
+			for( int ii = 1; ii < parallelism; ii++){
+				long p = align(ch, Math.max(prev, size / parallelism * ii), size);
+				if( p > prev && p < size ){
+					bounds.add(p);
+					prev = p;
+				}
+			}
+			bounds.add(size);
+			long[] res = new long[bounds.size()];
+			for( int ii = 0; ii < res.length; ii++) 
+				res[ii] = bounds.get(ii);
+			return res;
+		}
+	}
+	
+	/**
+	 * Reads every range on its own thread, handing its lines to a handler created
+	 * for that range. A handler returning false stops only its own range.
+	 * @param handlers creates one handler per range
+	 * @return total number of lines handed to the handlers
+	 * @throws IOException if reading or any handler failed
+	 */
+	public long forEachLine(Supplier<? extends LineHandler> handlers) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		try {
+			return forEachLine(handlers, pool);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Same as {@link #forEachLine(Supplier)}, running the ranges on the given executor.
+	 */
+	public long forEachLine(Supplier<? extends LineHandler> handlers, ExecutorService executor) throws IOException {
+		long[] bounds = split();
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		try( FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ) ){
+			for( int ii = 0; ii + 1 < bounds.length; ii++){
+				final long start = bounds[ii], end = bounds[ii+1];
+				final LineHandler h = handlers.get();
+				results.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						try( MappedByteArrayReader in = new MappedByteArrayReader(ch, start, end, windowSize) ){
+							return in.forEachLine(h);
+						}
+					}
+				}));
+			}
+			long lines = 0;
+			for( Future<Long> f : results ) 
+				lines += f.get();
+			return lines;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading " + file, e);
+		} catch (ExecutionException e) {
+			Throwable c = e.getCause();
+			if( c instanceof IOException ) throw (IOException)c;
+			if( c instanceof RuntimeException ) throw (RuntimeException)c;
+			if( c instanceof Error ) throw (Error)c;
+			throw new IOException(c);
+		} finally {
+			for( Future<Long> f : results ) 
+				f.cancel(true);
+		}
+	}
+	
+	/**
+	 * A parallel stream of copies of every line in the file. Close the stream to
+	 * release the file.
+	 * @return
+	 * @throws IOException
+	 */
+	public Stream<byte[]> lines() throws IOException {
+		final FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		return StreamSupport.stream(new LineSpliterator(ch, 0, ch.size(), windowSize), true)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							ch.close();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+	}
+	
+	/**
+	 * Splits its range in half at a line boundary until ranges drop below 
+	 * {@link #MIN_SPLIT_SIZE}, then reads its range with a MappedByteArrayReader.
+	 */
+	static final class LineSpliterator implements Spliterator<byte[]> {
+		private final FileChannel ch;
+		private final int windowSize;
+		private long start;
+		private final long end;
+		private MappedByteArrayReader in = null;
+		
+		LineSpliterator(FileChannel ch, long start, long end, int windowSize){
+			this.ch = ch;
+			this.start = start;
+			this.end = end;
+			this.windowSize = windowSize;
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super byte[]> action) {
+			try {
+				if( in == null ){
+					if( start >= end ) return false;
+					in = new MappedByteArrayReader(ch, start, end, windowSize);
+				}
+				byte[] line = in.readLine();
+				if( line == null ){
+					in.close();
+					start = end;
+					return false;
+				}
+				action.accept(line);
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public Spliterator<byte[]> trySplit() {
+			if( in != null || end - start < 2L * MIN_SPLIT_SIZE ) return null;
+			try {
+				long mid = align(ch, start + (end - start) / 2, end);
+				if( mid <= start || mid >= end ) return null;
+				LineSpliterator prefix = new LineSpliterator(ch, start, mid, windowSize);
+				start = mid;
+				return prefix;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		/** Remaining bytes, an upper bound on the remaining lines. */
+		@Override
+		public long estimateSize() {
+			return ( in == null ) ? end - start : end - in.position();
+		}
+		
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.mnasser.io;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MutableByteBuilder borrowed from a {@link ByteBuilderPool}. Closing it hands 
+ * it back, so it can be used with try-with-resources:
+ * <pre>
+ * try( PooledByteBuilder bb = pool.acquire() ){
+ *     bb.append(...);
+ *     out.write(bb.getContent(), 0, bb.length());
+ * }
+ * </pre>
+ * It must not be touched once closed, another thread may already be using it.
+ * <strong>NOT THREAD SAFE.</strong>
+ * @author mnasser
+ */
+public class PooledByteBuilder extends MutableByteBuilder implements AutoCloseable {
+
+	private final ByteBuilderPool pool;
+	/** Released and not acquired since, set atomically so a second release is caught on any thread */
+	final AtomicBoolean pooled = new AtomicBoolean(false);
+
+	PooledByteBuilder(int capacity, ByteBuilderPool pool){
+		super(capacity);
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns this builder to its pool.
+	 */
+	@Override
+	public void close() {
+		pool.release(this);
+	}
+}
@@ -0,0 +1,427 @@
+package com.mnasser.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ByteBuilder} backed by a circular buffer, so bytes can be consumed 
+ * from the front in constant time.
+ * <p>
+ * The contents start at <code>head</code> and wrap around the end of the 
+ * backing store. <code>delete(0, n)</code> just moves the head forward instead 
+ * of shifting every remaining byte down, which makes it a good fit for 
+ * producer/consumer buffers such as {@link ByteArrayReader}'s. Capacity is 
+ * always a power of two.
+ * <p>
+ * Since the contents may wrap, the backing store can't be handed out as is.
+ * Use {@link #array()} together with {@link #arrayIndex(int)} for direct access.
+ * <strong>NOT THREAD SAFE.</strong>
+ * @author mnasser
+ */
+public class RingByteBuilder extends ByteBuilder {
+
+	protected int head = 0;
+	private int mask;
+	
+	public RingByteBuilder() {
+		this(256);
+	}
+	public RingByteBuilder(int initCapacity) {
+		super(ByteKeyTable.tableSizeFor(initCapacity));
+		mask = capacity - 1;
+	}
+	public RingByteBuilder(byte[] bb) {
+		this(Math.max(bb.length, 256));
+		append(bb);
+	}
+	
+	/**
+	 * Index into the backing store of the i'th byte of this sequence.
+	 * @param i
+	 * @return
+	 */
+	public int arrayIndex(int i){
+		return (head + i) & mask;
+	}
+	
+	/**
+	 * Returns the backing store by reference. The sequence starts at 
+	 * <code>arrayIndex(0)</code> and may wrap around to the beginning.
+	 * @return
+	 */
+	public byte[] array(){
+		return b;
+	}
+	
+	/**
+	 * Number of bytes that can be written contiguously into the backing store 
+	 * starting at <code>arrayIndex(length())</code>, without wrapping. 
+	 * Follow up a manual write with {@link #incrLength(int)}.
+	 * @return
+	 */
+	public int tailSpace(){
+		if( position == capacity ) return 0;
+		int tail = arrayIndex(position);
+		return ( tail >= head ) ? capacity - tail : head - tail;
+	}
+	
+	/**
+	 * Increments the current length of the sequence after a manual write 
+	 * at the tail.
+	 * @see #tailSpace()
+	 */
+	@Override
+	public void incrLength(int p) {
+		if( position + p > capacity ) throw new IndexOutOfBoundsException( (position + p) + " > " + capacity);
+		position += p;
+	}
+	
+	/**
+	 * Grows to the next power of two and unwraps the contents to start at index 0.
+	 */
+	@Override
+	protected void expandCapacity(int minimumCapacity) {
+		int newCapacity = ByteKeyTable.tableSizeFor( Math.max(minimumCapacity, capacity << 1) );
+		if( newCapacity < minimumCapacity )
+			throw new OutOfMemoryError("RingByteBuilder can't grow beyond " + newCapacity);
+		byte[] nb = new byte[newCapacity];
+		copyTo(0, nb, 0, position);
+		b = nb;
+		head = 0;
+		capacity = newCapacity;
+		mask = newCapacity - 1;
+	}
+	
+	/**
+	 * Copies len bytes starting at index 'from' of this sequence into dst, 
+	 * unwrapping them.
+	 */
+	@Override
+	public void copyTo(int from, byte[] dst, int off, int len){
+		if( from < 0 || len < 0 || from + len > position )
+			throw new IndexOutOfBoundsException("Attempt to copy ["+from+", "+(from+len)+") of length " + position);
+		int p = arrayIndex(from);
+		int first = Math.min(len, capacity - p);
+		System.arraycopy(b, p, dst, off, first);
+		System.arraycopy(b, 0, dst, off + first, len - first);
+	}
+	@Override
+	public void copyTo(int from, ByteBuffer dst, int index, int len){
+		if( from < 0 || len < 0 || from + len > position )
+			throw new IndexOutOfBoundsException("Attempt to copy ["+from+", "+(from+len)+") of length " + position);
+		int p = arrayIndex(from);
+		int first = Math.min(len, capacity - p);
+		dst.put(index, b, p, first);
+		dst.put(index + first, b, 0, len - first);
+	}
+	
+	@Override
+	public void reset(byte[] bb) {
+		clear();
+		append(bb);
+	}
+	
+	@Override
+	public ByteBuilder append(byte bite) {
+		if( position >= capacity )
+			expandCapacity(position + 1);
+		b[arrayIndex(position++)] = bite;
+		return this;
+	}
+	
+	@Override
+	public ByteBuilder append(byte[] bb, int off, int len) {
+		if( position + len > capacity )
+			expandCapacity(position + len);
+		int p = arrayIndex(position);
+		int first = Math.min(len, capacity - p);
+		System.arraycopy(bb, off, b, p, first);
+		System.arraycopy(bb, off + first, b, 0, len - first);
+		position += len;
+		return this;
+	}
+	
+	@Override
+	public ByteBuilder append(ByteBuffer buf) {
+		int len = buf.remaining();
+		if( position + len > capacity )
+			expandCapacity(position + len);
+		int p = arrayIndex(position);
+		int first = Math.min(len, capacity - p);
+		buf.get(b, p, first);
+		buf.get(b, 0, len - first);
+		position += len;
+		return this;
+	}
+	
+	@Override
+	public ByteBuilder append(ByteBuilder bb) {
+		int len = bb.length();
+		if( position + len > capacity )
+			expandCapacity(position + len);
+		int p = arrayIndex(position);
+		int first = Math.min(len, capacity - p);
+		bb.copyTo(0, b, p, first);
+		bb.copyTo(first, b, 0, len - first);
+		position += len;
+		return this;
+	}
+	
+	/**
+	 * Writes the digits in place when they fit before the end of the backing
+	 * store, one at a time around the wrap otherwise.
+	 */
+	@Override
+	public ByteBuilder appendLong(long v) {
+		int len = stringSize(v);
+		if( position + len > capacity )
+			expandCapacity(position + len);
+		if( tailSpace() >= len ){
+			getChars(v, arrayIndex(position) + len, b);
+		}else{
+			boolean negative = v < 0;
+			if( ! negative ) v = -v;
+			for( int i = position + len - 1; v <= -10; i--){
+				long q = v / 10;
+				b[arrayIndex(i)] = (byte)('0' + (q * 10 - v));
+				v = q;
+			}
+			b[arrayIndex(position + (negative ? 1 : 0))] = (byte)('0' - v);
+			if( negative ) b[arrayIndex(position)] = '-';
+		}
+		position += len;
+		return this;
+	}
+
+	@Override
+	public byte byteAt(int i) {
+		if( i < 0 || i >= position ) throw new IndexOutOfBoundsException("Trying to get an index ("+i+") outside of length : " + position);
+		return b[arrayIndex(i)];
+	}
+	
+	@Override
+	public void setByteAt(int i, byte bite) {
+		if( i < 0 || i >= position ) throw new IndexOutOfBoundsException("Trying to set an index ("+i+") outside of length : " + position);
+		b[arrayIndex(i)] = bite;
+	}
+	
+	@Override
+	public int indexOf(byte bite, int start) {
+		return find(start, bite, null);
+	}
+	
+	@Override
+	public int indexOfAny(byte[] bites, int start) {
+		return find(start, (byte)0, bites);
+	}
+	
+	/**
+	 * Searches the one or two contiguous runs of the backing store, from 
+	 * the given index, for the byte or for any of the bytes if given.
+	 */
+	private int find(int start, byte bite, byte[] any){
+		if( start >= position ) return -1;
+		if( start < 0 ) start = 0;
+		int p = arrayIndex(start);
+		int end = head + position; // may be past the end of the array
+		int r;
+		if( end <= capacity ){
+			r = search(p, end, bite, any);
+			return ( r == -1 ) ? -1 : r - head;
+		}
+		if( p >= head ){
+			r = search(p, capacity, bite, any);
+			if( r != -1 ) return r - head;
+			p = 0;
+		}
+		r = search(p, end - capacity, bite, any);
+		return ( r == -1 ) ? -1 : r + capacity - head;
+	}
+	
+	private int search(int from, int to, byte bite, byte[] any){
+		return ( any == null ) ? indexOf(b, bite, from, to) : indexOfAny(b, from, to, any);
+	}
+	
+	@Override
+	public int indexOf(byte[] pattern, int start) {
+		if( start > position ) return -1;
+		if( start < 0 ) start = 0;
+		if( head + position <= capacity ){ // not wrapped
+			int r = indexOf(b, head + start, head + position, pattern);
+			return ( r == -1 ) ? -1 : r - head;
+		}
+		int m = pattern.length;
+		if( m == 0 ) return start;
+		for( int i = start, last = position - m; i <= last; i++){
+			if( (i = indexOf(pattern[0], i)) == -1 || i > last ) return -1;
+			int j = 1;
+			while( j < m && b[arrayIndex(i + j)] == pattern[j] ) j++;
+			if( j == m ) return i;
+		}
+		return -1;
+	}
+	
+	@Override
+	public List<byte[]> split(byte delim) {
+		List<byte[]> lb = new ArrayList<byte[]>();
+		int idx = 0, offset = 0;
+		while( (idx = indexOf(delim,offset)) != -1 ){
+			lb.add(subSequence(offset, idx));
+			offset = idx + 1;
+		}
+		if( offset < position)
+			lb.add(subSequence(offset, position));
+		return lb;
+	}
+	
+	/**
+	 * Gets a copy of the current contents, unwrapped.
+	 */
+	@Override
+	public byte[] getContent() {
+		return subSequence(0, position);
+	}
+	
+	@Override
+	public void clear() {
+		head = 0;
+		position = 0;
+	}
+	
+	@Override
+	public String toString() {
+		return new String(getContent());
+	}
+	
+	@Override
+	public boolean asciiCompare(String s) {
+		if( position != s.length() ) return false;
+		for( int ii = 0; ii < position; ii++){
+			if( (byte)s.charAt(ii) != b[arrayIndex(ii)] )
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean equals(byte[] bb) {
+		if( position != bb.length )return false;
+		for( int ii = 0; ii < position; ii++){
+			if( bb[ii] != b[arrayIndex(ii)] )
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if( obj instanceof ByteBuilder ){
+			ByteBuilder other = (ByteBuilder)obj;
+			if( other.length() != position ) return false;
+			for( int ii = 0; ii < position; ii++){
+				if( other.byteAt(ii) != b[arrayIndex(ii)] )
+					return false;
+			}
+			return true;
+		}
+		if( obj instanceof byte[] ){
+			return equals((byte[]) obj);
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes `len` bytes starting from the start index. 
+	 * Deleting from the front just moves the head forward. Otherwise whichever 
+	 * side of the deleted range is shorter gets shifted over it.
+	 */
+	@Override
+	public ByteBuilder delete(int idx, int len) {
+		if( idx >= position || len <= 0 ) return this;
+		if( idx + len >= position ){
+			position = idx;
+			if( position == 0 ) head = 0;
+			return this;
+		}
+		if( idx < position - idx - len ){
+			// shift the front forward
+			for( int ii = idx - 1; ii >= 0; ii--)
+				b[arrayIndex(ii + len)] = b[arrayIndex(ii)];
+			head = arrayIndex(len);
+		}else{
+			for( int ii = idx; ii + len < position; ii++)
+				b[arrayIndex(ii)] = b[arrayIndex(ii + len)];
+		}
+		position -= len;
+		return this;
+	}
+	
+	@Override
+	public char[] asCharArray() {
+		char[] c = new char[position];
+		for( int ii = 0; ii < position; ii++)
+			c[ii] = (char)b[arrayIndex(ii)];
+		return c;
+	}
+	
+	@Override
+	public byte[] subSequence(int from, int to) {
+		if( from > position || to > position )
+			throw new IndexOutOfBoundsException("Attempt to access index greater than " + position);
+		if( from > to )
+			throw new IllegalArgumentException(from + " > " + to);
+		byte[] res = new byte[to - from];
+		copyTo(from, res, 0, to - from);
+		return res;
+	}
+	
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for( int ii = 0; ii < position; ii++)
+			h = 31*h + b[arrayIndex(ii)];
+		return h;
+	}
+	
+	/**
+	 * Contents that wrap around the end of the array are copied out first.
+	 */
+	@Override
+	public long hash64(ByteHasher hasher){
+		if( head + position <= b.length )
+			return hasher.hash64(b, head, position);
+		return hasher.hash64(subSequence(0, position));
+	}
+	@Override
+	public int hashCode(ByteHasher hasher){
+		if( head + position <= b.length )
+			return hasher.hash(b, head, position);
+		return hasher.hash(subSequence(0, position));
+	}
+	
+	@Override
+	public int compareTo(ByteBuilder o) {
+		int olen = o.length();
+		if( this.position < olen ) return -1;
+		if( this.position > olen ) return 1;
+		for( int ii = 0; ii < position; ii++){
+			byte l = b[arrayIndex(ii)], r = o.byteAt(ii);
+			if( l < r ) return -1;
+			else if( l > r ) return 1;
+		}
+		return 0;
+	}
+	
+	@Override
+	public int compareTo(byte[] o) {
+		if( position < o.length ) return -1;
+		if( position > o.length ) return 1;
+		for( int ii = 0; ii < position; ii++){
+			byte l = b[arrayIndex(ii)];
+			if( l < o[ii] ) return -1;
+			else if( l > o[ii] ) return 1;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,156 @@
+package com.mnasser.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a batch of commands run by {@link ShellUtils#runBatch(List, int, boolean)}.
+ * Per command results are indexed in the order the commands were given.
+ *
+ * @author mnasser
+ */
+public class BatchResult {
+
+	private final List<List<String>> commands;
+	private final ProcessResult[] results;
+	private final Throwable[] errors;
+	private final int firstFailure;
+	private final boolean aborted;
+	private final long wallNanos;
+
+	BatchResult(List<List<String>> commands, ProcessResult[] results, Throwable[] errors,
+			int firstFailure, boolean aborted, long wallNanos) {
+		this.commands = commands;
+		this.results = results;
+		this.errors = errors;
+		this.firstFailure = firstFailure;
+		this.aborted = aborted;
+		this.wallNanos = wallNanos;
+	}
+
+	/**
+	 * Number of commands in the batch.
+	 */
+	public int size(){
+		return results.length;
+	}
+	public List<String> command(int i){
+		return commands.get(i);
+	}
+	/**
+	 * Result of the i'th command, null if it never ran or couldn't be started.
+	 */
+	public ProcessResult result(int i){
+		return results[i];
+	}
+	/**
+	 * Why the i'th command couldn't be run, null if it ran or was skipped.
+	 */
+	public Throwable error(int i){
+		return errors[i];
+	}
+	/**
+	 * All results in command order, with nulls for commands that didn't run.
+	 */
+	public List<ProcessResult> results(){
+		return Arrays.asList(results);
+	}
+	/**
+	 * Whether the i'th command ran and succeeded, see {@link ProcessResult#isSuccess()}.
+	 */
+	public boolean succeeded(int i){
+		return results[i] != null && results[i].isSuccess();
+	}
+	public boolean allSucceeded(){
+		return firstFailure == -1 && skipped() == 0;
+	}
+	/**
+	 * Indexes of the commands that ran and failed or couldn't be started. In fail
+	 * fast mode this includes commands killed after the first failure.
+	 */
+	public List<Integer> failed(){
+		List<Integer> failed = new ArrayList<Integer>();
+		for( int ii = 0; ii < results.length; ii++){
+			if( errors[ii] != null || ( results[ii] != null && ! results[ii].isSuccess() ) )
+				failed.add(ii);
+		}
+		return failed;
+	}
+	/**
+	 * Number of commands never started because the batch was aborted.
+	 */
+	public int skipped(){
+		int n = 0;
+		for( int ii = 0; ii < results.length; ii++){
+			if( results[ii] == null && errors[ii] == null ) n++;
+		}
+		return n;
+	}
+	/**
+	 * Index of the command whose failure came first, -1 if none failed.
+	 */
+	public int firstFailure(){
+		return firstFailure;
+	}
+	/**
+	 * Whether a failure stopped the batch early (fail fast mode only).
+	 */
+	public boolean aborted(){
+		return aborted;
+	}
+	/**
+	 * Time the whole batch took.
+	 */
+	public long wallNanos(){
+		return wallNanos;
+	}
+	/**
+	 * Sum of the wall times of every command that ran. Divided by wallNanos()
+	 * this is the parallelism achieved.
+	 */
+	public long totalWallNanos(){
+		long sum = 0;
+		for( ProcessResult r : results ){
+			if( r != null ) sum += r.wallNanos();
+		}
+		return sum;
+	}
+	/**
+	 * Sum of the CPU times the OS reported, commands it didn't report for count as 0.
+	 */
+	public long totalCpuNanos(){
+		long sum = 0;
+		for( ProcessResult r : results ){
+			if( r != null && r.cpuNanos() > 0 ) sum += r.cpuNanos();
+		}
+		return sum;
+	}
+
+	/**
+	 * Throws if any command failed, describing the first failure.
+	 * @throws RuntimeException
+	 */
+	public void throwIfFailed(){
+		if( firstFailure == -1 ) return;
+		String cmd = String.join(" ", commands.get(firstFailure));
+		if( errors[firstFailure] != null )
+			throw new RuntimeException("Cmd failed: " + cmd, errors[firstFailure]);
+		ProcessResult r = results[firstFailure];
+		if( r.timedOut() )
+			throw new RuntimeException("Cmd timed out: " + cmd);
+		if( ! r.stderr().isEmpty() )
+			throw new RuntimeException(r.stderr() + "\n$> " + cmd + '\n');
+		throw new RuntimeException("Cmd exited with " + r.exitCode() + " error code: " + cmd);
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult[commands=" + results.length + ", failed=" + failed().size()
+				+ ", skipped=" + skipped() + ( aborted ? ", aborted" : "" )
+				+ ", wall=" + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "ms"
+				+ ", total wall=" + TimeUnit.NANOSECONDS.toMillis(totalWallNanos()) + "ms"
+				+ ", total cpu=" + TimeUnit.NANOSECONDS.toMillis(totalCpuNanos()) + "ms]";
+	}
+}
@@ -0,0 +1,97 @@
+package com.mnasser.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.mnasser.io.ByteArrayReader;
+
+/**
+ * ByteArrayReader over the stdout of a running child process, see 
+ * {@link ShellUtils#readProcess(String...)}. Its stderr is drained in the 
+ * background so the child never blocks on it.
+ * 
+ * @author mnasser
+ */
+public class ProcessReader extends ByteArrayReader {
+
+	private final Process p;
+	private final List<String> command;
+	private final Future<String> err;
+	private boolean closed = false;
+
+	ProcessReader(Process p, List<String> command) {
+		super(new EofStream(p.getInputStream()));
+		this.p = p;
+		this.command = command;
+		this.err = ProcessRunner.DRAIN.submit( () -> ProcessRunner.drain(p.getErrorStream()) );
+	}
+
+	/**
+	 * Notes when the child's stdout has been read to its end.
+	 */
+	private static final class EofStream extends FilterInputStream {
+		volatile boolean eof = false;
+
+		EofStream(InputStream in){
+			super(in);
+		}
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if( b == -1 ) eof = true;
+			return b;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int got = super.read(b, off, len);
+			if( got == -1 ) eof = true;
+			return got;
+		}
+	}
+
+	/**
+	 * The child process.
+	 */
+	public Process getProcess(){
+		return p;
+	}
+
+	/**
+	 * Closes stdout and waits for the process to exit, however long it takes 
+	 * once all of stdout was read. If reading stopped early and the process is 
+	 * still running the tree is killed instead, and nothing is reported.
+	 * @throws RuntimeException with the stderr output if there was any, or if 
+	 * the process exited with a non 0 code
+	 */
+	@Override
+	public void close() throws IOException {
+		if( closed ) return;
+		closed = true;
+		boolean eof = ((EofStream) getInputStream()).eof;
+		super.close();
+		String cmd = String.join(" ", command);
+		try {
+			if( ! eof && p.isAlive() ){
+				ProcessRunner.destroyTree(p.toHandle());
+				err.cancel(true);
+				return;
+			}
+			int exit = p.waitFor();
+			String stderr = err.get();
+			if( ! stderr.isEmpty() )
+				throw new RuntimeException(stderr + "\n$> " + cmd + '\n');
+			if( exit != 0 )
+				throw new RuntimeException("Cmd exited with " + exit + " error code: " + cmd);
+		} catch (InterruptedException e) {
+			ProcessRunner.destroyTree(p.toHandle());
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for " + cmd, e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+}
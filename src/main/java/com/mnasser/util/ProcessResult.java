@@ -0,0 +1,91 @@
+package com.mnasser.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of running a child process through {@link ShellUtils}.
+ *
+ * @author mnasser
+ */
+public class ProcessResult {
+
+	private final List<String> command;
+	private final int exitCode;
+	private final List<String> output;
+	private final String stderr;
+	private final boolean timedOut;
+	private final long wallNanos;
+	private final long cpuNanos;
+
+	ProcessResult(List<String> command, int exitCode, List<String> output, String stderr, boolean timedOut,
+			long wallNanos, long cpuNanos) {
+		this.command = command;
+		this.exitCode = exitCode;
+		this.output = ( output == null ) ? Collections.<String>emptyList() : output;
+		this.stderr = stderr;
+		this.timedOut = timedOut;
+		this.wallNanos = wallNanos;
+		this.cpuNanos = cpuNanos;
+	}
+
+	/**
+	 * The command line that was run.
+	 */
+	public List<String> command(){
+		return command;
+	}
+	/**
+	 * Exit code of the process, -1 if it was killed for running too long.
+	 */
+	public int exitCode(){
+		return exitCode;
+	}
+	/**
+	 * Lines written to stdout. Empty when stdout was handed to a callback instead.
+	 */
+	public List<String> output(){
+		return output;
+	}
+	/**
+	 * Lines written to stderr joined by "\n\t", empty if there were none.
+	 * Only the first 64K characters are kept.
+	 */
+	public String stderr(){
+		return stderr;
+	}
+	/**
+	 * Whether the process tree was killed because it ran past its timeout.
+	 */
+	public boolean timedOut(){
+		return timedOut;
+	}
+	/**
+	 * Time from start until the process exited and its output was read.
+	 */
+	public long wallNanos(){
+		return wallNanos;
+	}
+	/**
+	 * CPU time (user + system) used by the process itself, not its children. 
+	 * Best effort: -1 if the OS didn't report it before the process went away.
+	 */
+	public long cpuNanos(){
+		return cpuNanos;
+	}
+	/**
+	 * True if the process exited with 0, in time and without writing to stderr.
+	 */
+	public boolean isSuccess(){
+		return exitCode == 0 && ! timedOut && stderr.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ProcessResult[" + String.join(" ", command) + ", exit=" + exitCode
+				+ ( timedOut ? ", timed out" : "" ) + ", lines=" + output.size()
+				+ ", wall=" + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "ms"
+				+ ( cpuNanos < 0 ? "" : ", cpu=" + TimeUnit.NANOSECONDS.toMillis(cpuNanos) + "ms" ) + "]";
+	}
+}
@@ -0,0 +1,351 @@
+package com.mnasser.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import com.mnasser.io.ByteArrayReader;
+import com.mnasser.io.LineHandler;
+
+/**
+ * Runs a started child process to completion for {@link ShellUtils}.
+ * <p>
+ * stdout is handed to an {@link OutputHandler} on the calling thread while stderr
+ * is drained at the same time on a shared executor, so a child filling either
+ * pipe can never block on the other. Only the first {@link #MAX_STDERR} chars of
+ * stderr are kept, the rest is read and dropped.
+ * <p>
+ * With a timeout, a watchdog kills the whole process tree once it is up. That
+ * closes the child's pipes so the reads here return and the result reports it.
+ * <p>
+ * Async runs go through {@link #ASYNC}, which never runs more than 
+ * {@link #ASYNC_LIMIT} processes at once however many are submitted.
+ *
+ * @author mnasser
+ */
+final class ProcessRunner {
+
+	private ProcessRunner(){}
+
+	/** Characters of stderr kept in a result */
+	static final int MAX_STDERR = 64 * 1024;
+
+	/** Drains stderr, one task per running process. Virtual threads when the JVM has them. */
+	static final ExecutorService DRAIN = newExecutor("shellutils-drain");
+
+	/** Processes run at once by {@link #ASYNC} */
+	static final int ASYNC_LIMIT = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+	/** Runs the async ShellUtils calls */
+	static final Executor ASYNC = newBoundedExecutor("shellutils-async", ASYNC_LIMIT);
+
+	private static final ScheduledExecutorService WATCHDOG =
+			Executors.newSingleThreadScheduledExecutor(daemonThreads("shellutils-watchdog"));
+
+	/**
+	 * Consumes a child's stdout.
+	 */
+	interface OutputHandler {
+		/**
+		 * @return false if it stopped before the end, the process tree is then killed
+		 */
+		boolean handle(InputStream stdout) throws IOException;
+	}
+
+	/**
+	 * Reads stdout as lines, logging each one if log isn't null and collecting them.
+	 */
+	static final class LineCollector implements OutputHandler {
+		final List<String> lines = new ArrayList<String>();
+		private final Logger log;
+
+		LineCollector(Logger log){
+			this.log = log;
+		}
+		@Override
+		public boolean handle(InputStream stdout) throws IOException {
+			BufferedReader br = new BufferedReader(new InputStreamReader(stdout));
+			String line;
+			while( (line = br.readLine()) != null ){
+				if( log != null )
+					log.info(line);
+				lines.add(line);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Hands stdout lines to a {@link LineHandler} as byte slices, no Strings.
+	 */
+	static final class LineFeeder implements OutputHandler {
+		private final LineHandler handler;
+		long lines = 0;
+		boolean stopped = false;
+
+		LineFeeder(LineHandler handler){
+			this.handler = handler;
+		}
+		@Override
+		public boolean handle(InputStream stdout) throws IOException {
+			lines = new ByteArrayReader(stdout).forEachLine( (buf, off, len) -> {
+				boolean more = handler.onLine(buf, off, len);
+				stopped = ! more;
+				return more;
+			});
+			return ! stopped;
+		}
+	}
+
+	/**
+	 * Waits for the process to finish, feeding its stdout to out.
+	 * @param p a just started process
+	 * @param command its command line, for the result
+	 * @param out gets stdout, lines end up in the result if it is a {@link LineCollector}
+	 * @param timeout how long the process may run, 0 for no limit
+	 * @param unit
+	 * @throws IOException reading the child's output failed
+	 */
+	static ProcessResult run(Process p, List<String> command, OutputHandler out, long timeout, TimeUnit unit) throws IOException {
+		long start = System.nanoTime();
+		Future<String> err = DRAIN.submit( () -> drain(p.getErrorStream()) );
+
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		ScheduledFuture<?> watchdog = null;
+		if( timeout > 0 ){
+			watchdog = WATCHDOG.schedule( () -> {
+				if( p.isAlive() ){ // a process that already finished keeps its exit code
+					timedOut.set(true);
+					destroyTree(p.toHandle());
+				}
+			}, timeout, unit);
+		}
+
+		try {
+			InputStream stdout = p.getInputStream();
+			try {
+				if( ! out.handle(stdout) )
+					destroyTree(p.toHandle()); // nobody is reading the rest
+			} finally {
+				stdout.close();
+			}
+			long cpu = cpuNanos(p);
+			String stderr = err.get();
+			cpu = Math.max(cpu, cpuNanos(p));
+			int exit = p.waitFor();
+			long wall = System.nanoTime() - start;
+			boolean killed = timedOut.get();
+			if( killed ) exit = -1;
+			List<String> lines = ( out instanceof LineCollector ) ? ((LineCollector) out).lines : null;
+			return new ProcessResult(command, exit, lines, stderr, killed, wall, cpu);
+		} catch (InterruptedException e) {
+			destroyTree(p.toHandle());
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for process " + p.pid(), e);
+		} catch (ExecutionException e) {
+			destroyTree(p.toHandle());
+			throw ( e.getCause() instanceof IOException ) ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (IOException | RuntimeException e) {
+			destroyTree(p.toHandle());
+			throw e;
+		} finally {
+			if( watchdog != null )
+				watchdog.cancel(false);
+			err.cancel(true);
+		}
+	}
+
+	/**
+	 * Starts the process and runs it on the executor.
+	 * @return completes with the result, or exceptionally if the process could not 
+	 * be started or its output not read
+	 */
+	static CompletableFuture<ProcessResult> runAsync(ProcessBuilder pb, OutputHandler out, long timeout, TimeUnit unit, Executor executor){
+		return CompletableFuture.supplyAsync( () -> {
+			try {
+				return run(pb.start(), pb.command(), out, timeout, unit);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Runs the commands with at most parallelism of them at once. The calling 
+	 * thread only starts them, each waits on a {@link #DRAIN} thread.
+	 * @param failFast on the first failure stop starting commands and kill the 
+	 * running ones, otherwise run them all
+	 * @param timeout per command, 0 for no limit
+	 */
+	static BatchResult runBatch(List<List<String>> commands, int parallelism, final boolean failFast, 
+			final long timeout, final TimeUnit unit){
+		if( parallelism < 1 )
+			throw new IllegalArgumentException("Parallelism must be positive : " + parallelism);
+		final int n = commands.size();
+		final ProcessResult[] results = new ProcessResult[n];
+		final Throwable[] errors = new Throwable[n];
+		final AtomicInteger firstFailure = new AtomicInteger(-1);
+		final AtomicBoolean aborted = new AtomicBoolean(false);
+		final Set<Process> running = ConcurrentHashMap.newKeySet();
+		final Semaphore permits = new Semaphore(parallelism);
+		final CountDownLatch done = new CountDownLatch(n);
+		long start = System.nanoTime();
+
+		try {
+			int started = 0;
+			for( ; started < n; started++ ){
+				permits.acquire();
+				if( aborted.get() ){
+					permits.release();
+					break;
+				}
+				final int i = started;
+				final ProcessBuilder pb = new ProcessBuilder(commands.get(i));
+				DRAIN.execute( () -> {
+					Process p = null;
+					try {
+						p = pb.start();
+						running.add(p);
+						if( aborted.get() ) destroyTree(p.toHandle());
+						results[i] = run(p, pb.command(), new LineCollector(null), timeout, unit);
+					} catch (Throwable t) {
+						errors[i] = t;
+					} finally {
+						if( p != null ) running.remove(p);
+						if( errors[i] != null || ! results[i].isSuccess() ){
+							if( firstFailure.compareAndSet(-1, i) && failFast ){
+								aborted.set(true);
+								for( Process r : running )
+									destroyTree(r.toHandle());
+							}
+						}
+						permits.release();
+						done.countDown();
+					}
+				});
+			}
+			for( ; started < n; started++ )
+				done.countDown(); // never started
+			done.await();
+		} catch (InterruptedException e) {
+			aborted.set(true);
+			for( Process r : running )
+				destroyTree(r.toHandle());
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted running batch", e);
+		}
+		return new BatchResult(commands, results, errors, firstFailure.get(), aborted.get(), System.nanoTime() - start);
+	}
+
+	/**
+	 * CPU time the process has used so far, -1 if the OS doesn't say. Only 
+	 * known while the process is alive, so it is sampled as late as possible.
+	 */
+	private static long cpuNanos(Process p){
+		return p.info().totalCpuDuration().map(Duration::toNanos).orElse(-1L);
+	}
+
+	/**
+	 * Kills a process and everything it started. Children are listed before the
+	 * parent dies, after that they would be reparented and out of reach.
+	 */
+	static void destroyTree(ProcessHandle h){
+		List<ProcessHandle> children = new ArrayList<ProcessHandle>();
+		h.descendants().forEach(children::add);
+		h.destroyForcibly();
+		for( ProcessHandle c : children )
+			c.destroyForcibly();
+	}
+
+	/**
+	 * Reads a stream to its end, keeping lines joined by "\n\t" up to MAX_STDERR chars.
+	 */
+	static String drain(InputStream is) throws IOException {
+		StringBuilder msg = new StringBuilder();
+		try( BufferedReader br = new BufferedReader(new InputStreamReader(is)) ){
+			String line;
+			while( (line = br.readLine()) != null ){
+				if( msg.length() < MAX_STDERR ){
+					msg.append(line, 0, Math.min(line.length(), MAX_STDERR - msg.length())).append("\n\t");
+				}
+			}
+		}
+		if( msg.length() > 0 )
+			msg.setLength(msg.length() - 2);
+		return msg.toString();
+	}
+
+	static ExecutorService newExecutor(String name){
+		ExecutorService virtual = virtualThreads();
+		return ( virtual != null ) ? virtual : Executors.newCachedThreadPool(daemonThreads(name));
+	}
+
+	/**
+	 * Executor running at most limit tasks at once, the rest wait in a queue. 
+	 * Virtual threads gated by a semaphore when the JVM has them, otherwise a 
+	 * pool of limit daemon threads.
+	 */
+	static Executor newBoundedExecutor(String name, int limit){
+		final ExecutorService virtual = virtualThreads();
+		if( virtual == null ){
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(limit, limit, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), daemonThreads(name));
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+		final Semaphore permits = new Semaphore(limit);
+		return task -> virtual.execute( () -> {
+			permits.acquireUninterruptibly();
+			try {
+				task.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * Java 21+ virtual thread per task executor, looked up reflectively as we 
+	 * build for 17. Null if there is none.
+	 */
+	private static ExecutorService virtualThreads(){
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	static ThreadFactory daemonThreads(final String name){
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
@@ -1,26 +1,33 @@
 package com.mnasser.util;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
+import com.mnasser.io.LineHandler;
+
 /**
  * Exposes the <code>shellOut</code> utilities allowing us
  * to create other sub processes on the system. 
  * 
  * This allows for a means of checking the std out, std err
  * and if there was a return status other than 0.
+ * 
+ * stdout and stderr are read at the same time, so a child that 
+ * writes a lot to either can't block waiting on the other. The 
+ * timeout variants kill the process and all of its children once 
+ * the time is up.
  * @author Moe
  *
  */
@@ -52,110 +59,120 @@ public class ShellUtils {
     }
 	
     public static void runProcess(Logger log, File workDir, Map<String, String> envMap, String... args) {
-        try {
-            ProcessBuilder pb = new ProcessBuilder(args);
-            pb.redirectErrorStream(true);   // merge stdout/stderr to one stream
-            
-            if (workDir != null) {
-                pb.directory(workDir);
-            }
+        runProcess(log, workDir, envMap, 0, TimeUnit.MILLISECONDS, args);
+    }
+    
+    /**
+     * Runs a process logging its merged stdout/stderr, killing the process tree 
+     * if it runs longer than timeout.
+     * @param timeout 0 for no limit
+     * @throws RuntimeException if it timed out
+     */
+    public static void runProcess(Logger log, File workDir, Map<String, String> envMap, long timeout, TimeUnit unit, String... args) {
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.redirectErrorStream(true);   // merge stdout/stderr to one stream
+        
+        if (workDir != null) {
+            pb.directory(workDir);
+        }
 
-            if (envMap != null) {
-                Map<String, String> env = pb.environment();
-                env.putAll(envMap);
-            }
-            
-            Process p = pb.start();
-            InputStream is = p.getInputStream();    // should have both stdout and stderr
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            while ((line = br.readLine()) != null) {
-                log.info(line);
-            }
-            br.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        if (envMap != null) {
+            Map<String, String> env = pb.environment();
+            env.putAll(envMap);
         }
+        
+        ProcessResult res = run(pb, new ProcessRunner.LineCollector(log), timeout, unit); // should have both stdout and stderr
+        checkTimeout(res, timeout, unit);
     }
 
     
+    /**
+     * Fire and forget runProcessThrowable() on the shared async executor. 
+     * Failures are logged to log, or if it is null handed to the uncaught 
+     * exception handler of the thread that ran the process.
+     * @see #runProcessThrowableFuture(Logger, String...)
+     */
     public static void runProcessThrowableAsync(final Logger log,final String... args) {  
-    	new Thread(new Runnable() {
-			@Override
-			public void run() {
-				runProcessThrowable(log,args);	
-			}
-		}).start();
+    	runProcessThrowableFuture(log, args).exceptionally( t -> {
+    		if (log != null) {
+    			log.error("Async process failed: " + String.join(" ", args), t);
+    		} else {
+    			Throwable cause = ( t instanceof CompletionException && t.getCause() != null ) ? t.getCause() : t;
+    			Thread th = Thread.currentThread();
+    			th.getUncaughtExceptionHandler().uncaughtException(th, cause);
+    		}
+    		return null;
+    	});
+    }
+    /**
+     * Same as runProcessThrowable() on the shared async executor.
+     * @return completes with the finished process, or exceptionally with what 
+     * runProcessThrowable() would have thrown
+     */
+    public static CompletableFuture<Process> runProcessThrowableFuture(final Logger log,final String... args) {  
+    	return CompletableFuture.supplyAsync(() -> runProcessThrowable(log,args), ProcessRunner.ASYNC);
+    }
+    
+    /**
+     * Runs a process without blocking. At most a few processes per core run at 
+     * once, any more wait their turn.
+     * @return completes with the result whatever the exit code or stderr, 
+     * exceptionally only if the process could not be run at all
+     */
+    public static CompletableFuture<ProcessResult> runProcessAsync(String... args) {
+    	return runProcessAsync(0, TimeUnit.MILLISECONDS, args);
+    }
+    /**
+     * @param timeout 0 for no limit, otherwise the process tree is killed once it 
+     * is up and the result says it timed out
+     * @see #runProcessAsync(String...)
+     */
+    public static CompletableFuture<ProcessResult> runProcessAsync(long timeout, TimeUnit unit, String... args) {
+    	return ProcessRunner.runAsync(new ProcessBuilder(args), new ProcessRunner.LineCollector(null), timeout, unit, ProcessRunner.ASYNC);
+    }
+    /**
+     * Calls 'sh -c arg' without blocking. 
+     * @see #runProcessAsync(String...)
+     */
+    public static CompletableFuture<ProcessResult> shellOutAsync(String arg) {
+    	return shellOutAsync(arg, 0, TimeUnit.MILLISECONDS);
+    }
+    public static CompletableFuture<ProcessResult> shellOutAsync(String arg, long timeout, TimeUnit unit) {
+    	return runProcessAsync(timeout, unit, "sh", "-c", arg);
     }
     
     public static Process runProcessThrowable(Logger log, String... args) {
-    	
-        try {
-            ProcessBuilder pb = new ProcessBuilder(args);
-            Process p = pb.start();
-            InputStream is = p.getInputStream(); 
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            while ((line = br.readLine()) != null) {
-                log.info(line);
-            }
-            br.close();
-            is = p.getErrorStream();
-            isr = new InputStreamReader(is);
-            br = new BufferedReader(isr);
-            line = null;
-            StringBuilder msg = new StringBuilder();
-            while ((line = br.readLine()) != null) {
-                msg.append(line).append("\n\t");
-            }
-            br.close();
-    		if (msg.length() > 0) {
-            	msg.setLength(msg.length()-2);
-            	throw new RuntimeException(msg.toString());
-            }
-
-    		return p;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    	return runProcessThrowable(log, 0, TimeUnit.MILLISECONDS, args);
+    }
+    /**
+     * Runs a process logging its stdout. 
+     * @param timeout 0 for no limit, otherwise the process tree is killed once it is up
+     * @return the finished process
+     * @throws RuntimeException with the stderr output if there was any, or if it timed out
+     */
+    public static Process runProcessThrowable(Logger log, long timeout, TimeUnit unit, String... args) {
+        ProcessBuilder pb = new ProcessBuilder(args);
+        Process p = start(pb);
+        ProcessResult res = run(p, pb, new ProcessRunner.LineCollector(log), timeout, unit);
+        checkTimeout(res, timeout, unit);
+        checkStderr(res, "");
+        return p;
     }
     
     //  Returns the output of this process call
     public static List<String> runProcessResultsThrowable(String... args) {
-        try {
-        	
-            ProcessBuilder pb = new ProcessBuilder(args);
-            Process p = pb.start();
-            InputStream is = p.getInputStream(); 
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            List<String> results = new ArrayList<String>();
-            while ((line = br.readLine()) != null) {
-                results.add(line);
-            }
-            br.close();
-            is = p.getErrorStream();
-            isr = new InputStreamReader(is);
-            br = new BufferedReader(isr);
-            line = null;
-            StringBuilder msg = new StringBuilder();
-            while ((line = br.readLine()) != null) {
-                msg.append(line).append("\n\t");
-            }
-            br.close();
-    		if (msg.length() > 0) {
-            	msg.setLength(msg.length()-2);
-            	throw new RuntimeException(msg.toString());
-            }
-
-    		return results;
-    		
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return runProcessResultsThrowable(0, TimeUnit.MILLISECONDS, args);
+    }
+    /**
+     * Returns the output of this process call.
+     * @param timeout 0 for no limit, otherwise the process tree is killed once it is up
+     * @throws RuntimeException with the stderr output if there was any, or if it timed out
+     */
+    public static List<String> runProcessResultsThrowable(long timeout, TimeUnit unit, String... args) {
+        ProcessResult res = run(new ProcessBuilder(args), new ProcessRunner.LineCollector(null), timeout, unit);
+        checkTimeout(res, timeout, unit);
+        checkStderr(res, "");
+        return res.output();
     }
     
     /**
@@ -170,49 +187,163 @@ public class ShellUtils {
     	return shellOut(null, arg);
     }
     public static List<String> shellOut(Logger log, String arg) {
-        try {
-        	
-            ProcessBuilder pb = new ProcessBuilder("sh","-c",arg);
-            Process p = pb.start();
-            InputStream is = p.getInputStream(); 
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            List<String> results = new ArrayList<String>();
-            while ((line = br.readLine()) != null) {
-            	if( log != null )
-            		log.info(line);
-                results.add(line);
-            }
-            br.close();
-            is = p.getErrorStream();
-            isr = new InputStreamReader(is);
-            br = new BufferedReader(isr);
-            line = null;
-            StringBuilder msg = new StringBuilder();
-            while ((line = br.readLine()) != null) {
-                msg.append(line).append("\n\t");
-            }
-            br.close();
-    		if (msg.length() > 0) {
-            	msg.setLength(msg.length()-2);
-            	throw new RuntimeException(msg.toString()+"\n$> "+arg+'\n');
-            }
+    	return shellOut(log, arg, 0, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * Shells out your commands, killing them and everything they started 
+     * if they run longer than timeout.
+     * 
+     * @param timeout 0 for no limit
+     * @return Any output from running the process. 
+     * @throws RuntimeException if it detects anything from stderr, the exit code 
+     * isn't 0 or it timed out
+     */
+    public static List<String> shellOut(Logger log, String arg, long timeout, TimeUnit unit) {
+        ProcessResult res = run(new ProcessBuilder("sh","-c",arg), new ProcessRunner.LineCollector(log), timeout, unit);
+        checkTimeout(res, timeout, unit);
+        checkStderr(res, "\n$> "+arg+'\n');
 
-    		// Good shell programs should have an exit code. Check for non zero
-    		int ret = 0;
-    		
-    		try { 	ret = p.waitFor();  } catch (InterruptedException e){}
-    		
-    		if( ret != 0 ){
-    			throw new RuntimeException("Cmd exited with "+ret+" error code: "+ arg);
-    		}
-    		return results;
-    		
+		// Good shell programs should have an exit code. Check for non zero
+		if( res.exitCode() != 0 ){
+			throw new RuntimeException("Cmd exited with "+res.exitCode()+" error code: "+ arg);
+		}
+		return res.output();
+    }
+    
+    /**
+     * Runs a process handing every line of its stdout to the handler as a slice 
+     * of a reused byte buffer. Nothing is decoded into Strings nor buffered 
+     * beyond the current line, so commands dumping GBs (e.g. 'cdb -d') can feed 
+     * straight into ByteArrayMap or CdbWriter. Lines end at \n, \r or \r\n.
+     * <p>
+     * The handler may return false to stop early. The process tree is then 
+     * killed and its stderr and exit code are ignored.
+     * 
+     * @return the result, its output() is empty
+     * @throws RuntimeException with the stderr output if there was any
+     */
+    public static ProcessResult runProcessLines(LineHandler handler, String... args) {
+        return runProcessLines(handler, 0, TimeUnit.MILLISECONDS, args);
+    }
+    /**
+     * @param timeout 0 for no limit, otherwise the process tree is killed once it is up
+     * @throws RuntimeException with the stderr output if there was any, or if it timed out
+     * @see #runProcessLines(LineHandler, String...)
+     */
+    public static ProcessResult runProcessLines(LineHandler handler, long timeout, TimeUnit unit, String... args) {
+        ProcessRunner.LineFeeder feeder = new ProcessRunner.LineFeeder(handler);
+        ProcessResult res = run(new ProcessBuilder(args), feeder, timeout, unit);
+        checkTimeout(res, timeout, unit);
+        if (! feeder.stopped) {
+            checkStderr(res, "");
+        }
+        return res;
+    }
+    /**
+     * Same as shellOut() but hands stdout lines to the handler as byte slices.
+     * @see #runProcessLines(LineHandler, String...)
+     * @throws RuntimeException if it detects anything from stderr, the exit code 
+     * isn't 0 or it timed out
+     */
+    public static ProcessResult shellOutLines(String arg, LineHandler handler) {
+        return shellOutLines(arg, handler, 0, TimeUnit.MILLISECONDS);
+    }
+    public static ProcessResult shellOutLines(String arg, LineHandler handler, long timeout, TimeUnit unit) {
+        ProcessRunner.LineFeeder feeder = new ProcessRunner.LineFeeder(handler);
+        ProcessResult res = run(new ProcessBuilder("sh","-c",arg), feeder, timeout, unit);
+        checkTimeout(res, timeout, unit);
+        if (! feeder.stopped) {
+            checkStderr(res, "\n$> "+arg+'\n');
+            if( res.exitCode() != 0 ){
+                throw new RuntimeException("Cmd exited with "+res.exitCode()+" error code: "+ arg);
+            }
+        }
+        return res;
+    }
+    
+    /**
+     * Starts a process and returns its stdout as a ByteArrayReader, for pulling 
+     * lines with readLine() or forEachLine(). stderr is drained meanwhile.
+     * Close it when done, that waits for the process and reports a non 0 exit
+     * code or stderr output like shellOut does.
+     * @see ProcessReader#close()
+     */
+    public static ProcessReader readProcess(String... args) {
+        ProcessBuilder pb = new ProcessBuilder(args);
+        return new ProcessReader(start(pb), pb.command());
+    }
+    /**
+     * Calls 'sh -c arg' and returns its stdout as a ByteArrayReader.
+     * @see #readProcess(String...)
+     */
+    public static ProcessReader readShell(String arg) {
+        return readProcess("sh", "-c", arg);
+    }
+    
+    /**
+     * Runs a batch of commands, at most parallelism at a time, e.g. one per 
+     * shard when rebuilding cdbs. Commands count as failed if they can't be 
+     * started, exit with non 0, write to stderr or time out.
+     * 
+     * @param commands each one a program and its arguments
+     * @param parallelism how many run at once
+     * @param failFast on the first failure stop starting commands and kill those 
+     * running. Otherwise every command runs whatever happens to the others.
+     * @return per command results and overall timing, call 
+     * {@link BatchResult#throwIfFailed()} to get the usual exceptions
+     */
+    public static BatchResult runBatch(List<List<String>> commands, int parallelism, boolean failFast) {
+        return runBatch(commands, parallelism, failFast, 0, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * @param timeout per command, 0 for no limit
+     * @see #runBatch(List, int, boolean)
+     */
+    public static BatchResult runBatch(List<List<String>> commands, int parallelism, boolean failFast, long timeout, TimeUnit unit) {
+        return ProcessRunner.runBatch(commands, parallelism, failFast, timeout, unit);
+    }
+    /**
+     * Calls 'sh -c arg' for every arg in a batch.
+     * @see #runBatch(List, int, boolean)
+     */
+    public static BatchResult shellOutBatch(List<String> args, int parallelism, boolean failFast) {
+        return shellOutBatch(args, parallelism, failFast, 0, TimeUnit.MILLISECONDS);
+    }
+    public static BatchResult shellOutBatch(List<String> args, int parallelism, boolean failFast, long timeout, TimeUnit unit) {
+        List<List<String>> commands = new ArrayList<List<String>>(args.size());
+        for (String arg : args) {
+            commands.add(Arrays.asList("sh", "-c", arg));
+        }
+        return runBatch(commands, parallelism, failFast, timeout, unit);
+    }
+    
+    private static Process start(ProcessBuilder pb) {
+        try {
+            return pb.start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    private static ProcessResult run(ProcessBuilder pb, ProcessRunner.OutputHandler out, long timeout, TimeUnit unit) {
+        return run(start(pb), pb, out, timeout, unit);
+    }
+    private static ProcessResult run(Process p, ProcessBuilder pb, ProcessRunner.OutputHandler out, long timeout, TimeUnit unit) {
+        try {
+            return ProcessRunner.run(p, pb.command(), out, timeout, unit);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+    private static void checkTimeout(ProcessResult res, long timeout, TimeUnit unit) {
+        if (res.timedOut()) {
+            throw new RuntimeException("Cmd timed out after "+unit.toMillis(timeout)+" ms: "+String.join(" ", res.command()));
+        }
+    }
+    private static void checkStderr(ProcessResult res, String suffix) {
+        if (! res.stderr().isEmpty()) {
+            throw new RuntimeException(res.stderr()+suffix);
+        }
+    }
     
 	/**
 	 * Attempts to return the PID of the current Java process
@@ -264,6 +395,22 @@ public class ShellUtils {
     	}
     	return true;
     }
+    /**
+     * Byte slice version of {@link #isNumeric(String)}, true if num[off, off+len) 
+     * is non empty and all ASCII digits.
+     */
+    public static boolean isNumeric(byte[] num, int off, int len){
+    	if ( num == null || len <= 0 )
+    		return false;
+    	for( int ii = off, end = off + len; ii < end; ii++){
+    		if( num[ii] < '0' || num[ii] > '9')
+    			return false;
+    	}
+    	return true;
+    }
+    public static boolean isNumeric(byte[] num){
+    	return num != null && isNumeric(num, 0, num.length);
+    }
     
 
 	public static boolean isGZ(String s) {